@@ -0,0 +1,39 @@
+package com.gt.jacoco.api;
+
+import com.gt.jacoco.utils.CompileCacheUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * CI 上传构建产物，请求体为 jar 或 war 的原始内容，
+ * 解压后作为应用在该 commit 的编译输出，收集时不再拉取源码编译，class id 与线上运行的代码一致
+ */
+@RestController
+@RequestMapping(value = "register/{applicationName}/artifact")
+public class ArtifactController {
+
+    private static final Pattern APPLICATION_NAME = Pattern.compile("[\\w.-]+");
+
+    private static final Pattern COMMIT_ID = Pattern.compile("[0-9a-f]{40}");
+
+    @Autowired
+    private CompileCacheUtils compileCacheUtils;
+
+    @PostMapping(value = "{commitId}")
+    public String upload(@PathVariable String applicationName, @PathVariable String commitId, HttpServletRequest request) throws IOException {
+        if (!APPLICATION_NAME.matcher(applicationName).matches() || !COMMIT_ID.matcher(commitId).matches()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "应用名或 commit id 不合法");
+        }
+        if (!compileCacheUtils.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "没有配置编译缓存目录，无法保存构建产物");
+        }
+        return compileCacheUtils.putArtifact(applicationName, commitId, request.getInputStream()).getPath();
+    }
+
+}
@@ -21,4 +21,91 @@ public class Config {
 
     private String gitPassword;
 
+    /**
+     * 同时执行收集任务的应用数量上限
+     */
+    private Integer workerParallelism = 4;
+
+    /**
+     * 只重新统计被修改过的节点的覆盖率，关闭时每次重算整个报告
+     */
+    private Boolean incrementalRecount = true;
+
+    /**
+     * 增量报告的处理方式：dom 把报告加载为 dom4j 文档处理；stream 用 StAX 逐个 package 流式处理；
+     * bundle 直接用分析得到的覆盖率数据生成增量报告，不再输出和解析原始 jacoco xml
+     */
+    private String reportMode = "dom";
+
+    /**
+     * 驱动所有 agent 连接的 selector 线程数
+     */
+    private Integer dumpSelectorThreads = 2;
+
+    /**
+     * 连接 agent 的超时时间
+     */
+    private Long dumpConnectTimeoutMillis = 5000L;
+
+    /**
+     * 一次 dump 从发起到收到全部运行时数据的超时时间
+     */
+    private Long dumpTimeoutMillis = 60000L;
+
+    /**
+     * 编译输出缓存目录，按应用和新分支 commit id 保存 target/classes，
+     * 不配置时每个收集周期都编译并分析新分支的工作区，也不能上传构建产物
+     */
+    private String compileCacheDir;
+
+    /**
+     * 编译输出缓存占用磁盘的上限，超过时淘汰最久未使用的缓存
+     */
+    private Long compileCacheMaxBytes = 2L * 1024 * 1024 * 1024;
+
+    /**
+     * git 文件内容缓存占用内存的上限
+     */
+    private Long blobCacheMaxBytes = 64L * 1024 * 1024;
+
+    /**
+     * 改动方法缓存目录，按应用和新旧分支的 commit id 保存，不配置时只在内存中缓存每个应用最近一次的结果
+     */
+    private String changedMethodCacheDir;
+
+    /**
+     * 并行对比差异源码文件的线程数，不大于 1 时按顺序对比
+     */
+    private Integer astParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 源码文件方法摘要缓存目录，按 git blob id 保存，多个应用共用
+     */
+    private String methodSummaryCacheDir;
+
+    /**
+     * 按文件的编辑区间对比方法，只比较与编辑区间重叠的方法的方法体指纹
+     */
+    private Boolean hunkGuidedDiff = false;
+
+    /**
+     * 并行分析 class 文件的线程数，不大于 1 时按顺序分析
+     */
+    private Integer analysisParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 只完整分析有运行时数据或有改动方法的 class，其余 class 使用占位数据
+     */
+    private Boolean targetedAnalysis = false;
+
+    /**
+     * class 分析结构缓存目录，按 class id 保存，多个应用共用，不配置时每次都用 Analyzer 完整分析
+     */
+    private String classStructureCacheDir;
+
+    /**
+     * class 分析结构缓存占用内存的上限
+     */
+    private Long classStructureCacheMaxBytes = 64L * 1024 * 1024;
+
 }
@@ -0,0 +1,19 @@
+package com.gt.jacoco.entity;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * 应用一个实例上 jacoco agent 的 tcpserver 地址
+ */
+@Data
+public class AgentEndpoint {
+
+    @NotNull
+    private String host;
+
+    @NotNull
+    private Integer port = 6300;
+
+}
@@ -0,0 +1,80 @@
+package com.gt.jacoco.entity;
+
+import java.util.Arrays;
+
+/**
+ * 一个 sourcefile 中改动方法的源码行号区间，行号来自对比分支时新分支的语法树，
+ * 重叠或相邻的区间在第一次查询时合并并按起始行排序，之后判断某一行是否属于改动方法只需要一次二分查找
+ */
+public class ChangedLineRanges {
+
+    private int size;
+
+    private int[] begins = new int[4];
+
+    private int[] ends = new int[4];
+
+    private boolean normalized = true;
+
+    /**
+     * 加入一个方法的起止行，行号未知时忽略
+     *
+     * @param beginLine
+     * @param endLine
+     */
+    public void add(int beginLine, int endLine) {
+        if (beginLine < 0 || endLine < beginLine) {
+            return;
+        }
+        if (size == begins.length) {
+            begins = Arrays.copyOf(begins, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        begins[size] = beginLine;
+        ends[size] = endLine;
+        size++;
+        normalized = false;
+    }
+
+    /**
+     * 判断行号是否落在某个改动方法的区间内
+     *
+     * @param line
+     * @return
+     */
+    public boolean contains(int line) {
+        normalize();
+        int idx = Arrays.binarySearch(begins, 0, size, line);
+        if (idx >= 0) {
+            return true;
+        }
+        int previous = -idx - 2;
+        return previous >= 0 && ends[previous] >= line;
+    }
+
+    private void normalize() {
+        if (normalized) {
+            return;
+        }
+        long[] ranges = new long[size];
+        for (int idx = 0; idx < size; idx++) {
+            ranges[idx] = ((long) begins[idx] << 32) | ends[idx];
+        }
+        Arrays.sort(ranges);
+        int merged = 0;
+        for (long range : ranges) {
+            int begin = (int) (range >>> 32);
+            int end = (int) range;
+            if (merged > 0 && begin <= ends[merged - 1] + 1) {
+                ends[merged - 1] = Math.max(ends[merged - 1], end);
+            } else {
+                begins[merged] = begin;
+                ends[merged] = end;
+                merged++;
+            }
+        }
+        size = merged;
+        normalized = true;
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.gt.jacoco.entity;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 改动方法按 class 建立的索引，每个收集周期构建一次，
+ * 报告中的每个 method 节点通过 name + desc 做一次哈希查找即可判断是否改动
+ */
+public class ChangedMethodIndex {
+
+    private final Map<String, Map<String, MethodReference>> methodsByClass = new HashMap<>();
+
+    private final Set<String> packages = new HashSet<>();
+
+    /**
+     * @param classMethodChanged class 内部类名 -> 改动的方法
+     */
+    public ChangedMethodIndex(Map<String, List<MethodReference>> classMethodChanged) {
+        for (Map.Entry<String, List<MethodReference>> entry : classMethodChanged.entrySet()) {
+            String className = entry.getKey();
+            Map<String, MethodReference> methods = new HashMap<>(entry.getValue().size() * 2);
+            for (MethodReference methodReference : entry.getValue()) {
+                methods.putIfAbsent(methodReference.getMethodNameWithParams(), methodReference);
+            }
+            methodsByClass.put(className, methods);
+            packages.add(className.substring(0, Math.max(0, className.lastIndexOf('/'))));
+        }
+    }
+
+    public boolean containsPackage(String packageName) {
+        return packages.contains(packageName);
+    }
+
+    /**
+     * 获取一个 class 的改动方法，key 为 name + desc
+     *
+     * @param className
+     * @return class 没有改动时返回 null
+     */
+    public Map<String, MethodReference> getMethods(String className) {
+        return methodsByClass.get(className);
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.gt.jacoco.entity;
+
+/**
+ * 报告节点上按 ReportCounters.TYPES 顺序访问的 counter，
+ * 报告模型和 dom 节点都实现这个接口，统计规则只在 ReportRules 中实现一次
+ */
+public interface CoverageCounters {
+
+    boolean has(int type);
+
+    int getMissed(int type);
+
+    int getCovered(int type);
+
+    /**
+     * 只更新已经存在的 counter
+     *
+     * @param type
+     * @param missedCount
+     * @param coveredCount
+     */
+    void update(int type, int missedCount, int coveredCount);
+
+}
@@ -0,0 +1,47 @@
+package com.gt.jacoco.entity;
+
+/**
+ * 一个 sourcefile 下按行号升序排列的 line 覆盖数据，
+ * 报告模型和 dom 节点都实现这个接口，统计规则只在 ReportRules 中实现一次
+ */
+public interface CoverageLines {
+
+    byte MARK_NONE = 0;
+
+    byte MARK_UNCHANGED = 1;
+
+    byte MARK_CHANGED = 2;
+
+    int size();
+
+    /**
+     * 查找行号对应的下标
+     *
+     * @param lineNumber
+     * @return 不存在时返回 -1
+     */
+    int indexOf(int lineNumber);
+
+    int nr(int idx);
+
+    int mi(int idx);
+
+    int ci(int idx);
+
+    int mb(int idx);
+
+    int cb(int idx);
+
+    /**
+     * 修改一行的覆盖数据并设置标记
+     *
+     * @param idx
+     * @param lineMi
+     * @param lineCi
+     * @param lineMb
+     * @param lineCb
+     * @param mark   MARK_UNCHANGED 或 MARK_CHANGED
+     */
+    void setLine(int idx, int lineMi, int lineCi, int lineMb, int lineCb, byte mark);
+
+}
@@ -1,26 +1,51 @@
 package com.gt.jacoco.entity;
 
-import com.github.javaparser.ast.body.MethodDeclaration;
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-
-@Data
-@AllArgsConstructor
-@NoArgsConstructor
+import com.alibaba.fastjson.annotation.JSONCreator;
+import com.alibaba.fastjson.annotation.JSONField;
+import lombok.Value;
+
+/**
+ * 改动方法的索引项，只保留方法描述、方法体指纹和源码行号范围，不持有 JavaParser 的语法树，
+ * 每个源码文件对比完成后语法树即可回收
+ */
+@Value
 public class MethodReference {
 
     /**
-     * eg:  saySomethingToWorld(Ljava/lang/String;)
+     * 与 jacoco 报告中 method 节点的 name + desc 一致，eg:  saySomethingToWorld(Ljava/lang/String;)V
+     */
+    String methodNameWithParams;
+
+    /**
+     * 方法体 token 流的 64 位指纹，没有方法体时为 0
      */
-    private String methodNameWithParams;
+    long bodyFingerprint;
+
+    /**
+     * 方法声明在新分支源码中的起止行号，未知时为 -1
+     */
+    int beginLine;
+
+    int endLine;
 
-    private MethodDeclaration methodDeclaration;
+    @JSONCreator
+    public MethodReference(@JSONField(name = "methodNameWithParams") String methodNameWithParams,
+                           @JSONField(name = "bodyFingerprint") long bodyFingerprint,
+                           @JSONField(name = "beginLine") int beginLine,
+                           @JSONField(name = "endLine") int endLine) {
+        this.methodNameWithParams = methodNameWithParams == null ? null : methodNameWithParams.intern();
+        this.bodyFingerprint = bodyFingerprint;
+        this.beginLine = beginLine;
+        this.endLine = endLine;
+    }
 
     /**
      * use to decide should replace new jacoco method coverage data with old
      * discard method body not changed
      */
-    private String methodBodyHash;
+    @JSONField(serialize = false)
+    public String getMethodBodyHash() {
+        return Long.toHexString(bodyFingerprint);
+    }
 
 }
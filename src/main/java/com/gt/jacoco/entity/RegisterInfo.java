@@ -2,7 +2,9 @@ package com.gt.jacoco.entity;
 
 import lombok.Data;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.util.List;
 
 @Data
 public class RegisterInfo {
@@ -13,6 +15,12 @@ public class RegisterInfo {
     @NotNull
     private Integer port = 6300;
 
+    /**
+     * 应用有多个实例时每个实例的 agent 地址，不为空时代替 host 和 port，所有实例的运行时数据合并后分析
+     */
+    @Valid
+    private List<AgentEndpoint> agentEndpoints;
+
     @NotNull
     private String applicationName;
 
@@ -27,6 +35,11 @@ public class RegisterInfo {
 
     private String newBranchCommitId;
 
+    /**
+     * 只使用 CI 上传的构建产物分析，新分支当前 commit 没有上传时本轮不收集，也不在收集器上编译
+     */
+    private Boolean artifactOnly = false;
+
     private Integer runTimes = 0;
 
     private Long lastRunTime = 0L;
@@ -35,4 +48,19 @@ public class RegisterInfo {
 
     private String gitDir;
 
+    /**
+     * 上一次成功收集时的探针数据摘要
+     */
+    private String lastProbeDigest;
+
+    /**
+     * 上一次成功收集时旧分支的 commit id
+     */
+    private String lastOldCommitId;
+
+    /**
+     * 上一次成功收集时新分支的 commit id
+     */
+    private String lastNewCommitId;
+
 }
@@ -2,7 +2,9 @@ package com.gt.jacoco.entity;
 
 import lombok.Data;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.util.List;
 
 @Data
 public class RegisterRequest {
@@ -13,6 +15,12 @@ public class RegisterRequest {
     @NotNull
     private Integer port = 6300;
 
+    /**
+     * 应用有多个实例时每个实例的 agent 地址，不为空时代替 host 和 port，所有实例的运行时数据合并后分析
+     */
+    @Valid
+    private List<AgentEndpoint> agentEndpoints;
+
     @NotNull
     private String applicationName;
 
@@ -27,4 +35,9 @@ public class RegisterRequest {
 
     private String newBranchCommitId;
 
+    /**
+     * 只使用 CI 上传的构建产物分析，新分支当前 commit 没有上传时本轮不收集，也不在收集器上编译
+     */
+    private Boolean artifactOnly = false;
+
 }
@@ -0,0 +1,26 @@
+package com.gt.jacoco.entity;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class ReportClass {
+
+    private String name;
+
+    private String sourceFileName;
+
+    private String mark;
+
+    /**
+     * 方法的 counter 被修改过，需要重新统计
+     */
+    private boolean dirty;
+
+    private final List<ReportMethod> methods = new ArrayList<>();
+
+    private final ReportCounters counters = new ReportCounters();
+
+}
@@ -0,0 +1,63 @@
+package com.gt.jacoco.entity;
+
+/**
+ * 报告节点上的 counter 数据，按 TYPES 的顺序存放 missed/covered，
+ * jacoco 只输出 total 大于 0 的 counter，因此用 present 记录哪些类型存在
+ */
+public class ReportCounters implements CoverageCounters {
+
+    public static final String[] TYPES = {"INSTRUCTION", "BRANCH", "LINE", "COMPLEXITY", "METHOD", "CLASS"};
+
+    public static final int INSTRUCTION = 0;
+
+    public static final int BRANCH = 1;
+
+    public static final int LINE = 2;
+
+    public static final int CLASS = 5;
+
+    private final int[] missed = new int[TYPES.length];
+
+    private final int[] covered = new int[TYPES.length];
+
+    private int present;
+
+    public static int typeIndex(String type) {
+        for (int idx = 0; idx < TYPES.length; idx++) {
+            if (TYPES[idx].equals(type)) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean has(int type) {
+        return (present & (1 << type)) != 0;
+    }
+
+    @Override
+    public int getMissed(int type) {
+        return missed[type];
+    }
+
+    @Override
+    public int getCovered(int type) {
+        return covered[type];
+    }
+
+    public void set(int type, int missedCount, int coveredCount) {
+        missed[type] = missedCount;
+        covered[type] = coveredCount;
+        present |= 1 << type;
+    }
+
+    @Override
+    public void update(int type, int missedCount, int coveredCount) {
+        if (has(type)) {
+            missed[type] = missedCount;
+            covered[type] = coveredCount;
+        }
+    }
+
+}
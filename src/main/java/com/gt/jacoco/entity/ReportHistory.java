@@ -0,0 +1,53 @@
+package com.gt.jacoco.entity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 上一次生成的报告中，合并历史覆盖率所需要的那部分数据：
+ * 本次有改动的 class 的方法（按 name/desc/hash 索引）以及它们所在 sourcefile 的 line 数据
+ */
+public class ReportHistory {
+
+    private final Map<String, Map<String, ReportMethod>> methodsByClass = new HashMap<>();
+
+    private final Map<String, ReportSourceFile> sourceFilesByClass = new HashMap<>();
+
+    public static String methodKey(String name, String desc, String hash) {
+        return name + '\n' + desc + '\n' + hash;
+    }
+
+    /**
+     * 保留一个 class 的历史数据，只记录带有 hash 的方法
+     *
+     * @param reportClass
+     * @param sourceFile
+     */
+    public void addClass(ReportClass reportClass, ReportSourceFile sourceFile) {
+        if (sourceFile == null || methodsByClass.containsKey(reportClass.getName())) {
+            return;
+        }
+        Map<String, ReportMethod> methods = new HashMap<>();
+        for (ReportMethod method : reportClass.getMethods()) {
+            if (method.getHash() != null) {
+                methods.putIfAbsent(methodKey(method.getName(), method.getDesc(), method.getHash()), method);
+            }
+        }
+        methodsByClass.put(reportClass.getName(), methods);
+        sourceFilesByClass.put(reportClass.getName(), sourceFile);
+    }
+
+    public boolean containsClass(String className) {
+        return methodsByClass.containsKey(className);
+    }
+
+    public ReportMethod getMethod(String className, String name, String desc, String hash) {
+        Map<String, ReportMethod> methods = methodsByClass.get(className);
+        return methods == null ? null : methods.get(methodKey(name, desc, hash));
+    }
+
+    public ReportSourceFile getSourceFile(String className) {
+        return sourceFilesByClass.get(className);
+    }
+
+}
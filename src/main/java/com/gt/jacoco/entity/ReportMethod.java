@@ -0,0 +1,28 @@
+package com.gt.jacoco.entity;
+
+import lombok.Data;
+
+@Data
+public class ReportMethod {
+
+    private String name;
+
+    private String desc;
+
+    /**
+     * 方法起始行，没有行号信息时为 -1
+     */
+    private int line = -1;
+
+    /**
+     * 方法结束行，未计算时为 -1
+     */
+    private int endLine = -1;
+
+    private String hash;
+
+    private String mark;
+
+    private final ReportCounters counters = new ReportCounters();
+
+}
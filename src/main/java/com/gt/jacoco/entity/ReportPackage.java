@@ -0,0 +1,39 @@
+package com.gt.jacoco.entity;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class ReportPackage {
+
+    private String name;
+
+    private String mark;
+
+    /**
+     * class 的 counter 被修改过，需要重新统计
+     */
+    private boolean dirty;
+
+    private final List<ReportClass> classes = new ArrayList<>();
+
+    /**
+     * sourcefile 名称 -> sourcefile，保持原报告中的顺序
+     */
+    private final Map<String, ReportSourceFile> sourceFiles = new LinkedHashMap<>();
+
+    private final ReportCounters counters = new ReportCounters();
+
+    public ReportSourceFile getSourceFile(String sourceFileName) {
+        return sourceFiles.get(sourceFileName);
+    }
+
+    public void addSourceFile(ReportSourceFile sourceFile) {
+        sourceFiles.putIfAbsent(sourceFile.getName(), sourceFile);
+    }
+
+}
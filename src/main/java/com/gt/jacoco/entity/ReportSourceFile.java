@@ -0,0 +1,95 @@
+package com.gt.jacoco.entity;
+
+import lombok.Data;
+
+import java.util.Arrays;
+
+/**
+ * sourcefile 节点，line 数据按行号升序存放在基本类型数组中
+ */
+@Data
+public class ReportSourceFile implements CoverageLines {
+
+    private String name;
+
+    private int size;
+
+    private int[] nr = new int[16];
+
+    private int[] mi = new int[16];
+
+    private int[] ci = new int[16];
+
+    private int[] mb = new int[16];
+
+    private int[] cb = new int[16];
+
+    private byte[] marks = new byte[16];
+
+    private final ReportCounters counters = new ReportCounters();
+
+    public void addLine(int lineNr, int lineMi, int lineCi, int lineMb, int lineCb, byte mark) {
+        if (size == nr.length) {
+            int capacity = size * 2;
+            nr = Arrays.copyOf(nr, capacity);
+            mi = Arrays.copyOf(mi, capacity);
+            ci = Arrays.copyOf(ci, capacity);
+            mb = Arrays.copyOf(mb, capacity);
+            cb = Arrays.copyOf(cb, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+        }
+        nr[size] = lineNr;
+        mi[size] = lineMi;
+        ci[size] = lineCi;
+        mb[size] = lineMb;
+        cb[size] = lineCb;
+        marks[size] = mark;
+        size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int indexOf(int lineNumber) {
+        int idx = Arrays.binarySearch(nr, 0, size, lineNumber);
+        return idx >= 0 ? idx : -1;
+    }
+
+    @Override
+    public int nr(int idx) {
+        return nr[idx];
+    }
+
+    @Override
+    public int mi(int idx) {
+        return mi[idx];
+    }
+
+    @Override
+    public int ci(int idx) {
+        return ci[idx];
+    }
+
+    @Override
+    public int mb(int idx) {
+        return mb[idx];
+    }
+
+    @Override
+    public int cb(int idx) {
+        return cb[idx];
+    }
+
+    @Override
+    public void setLine(int idx, int lineMi, int lineCi, int lineMb, int lineCb, byte mark) {
+        mi[idx] = lineMi;
+        ci[idx] = lineCi;
+        mb[idx] = lineMb;
+        cb[idx] = lineCb;
+        marks[idx] = mark;
+    }
+
+}
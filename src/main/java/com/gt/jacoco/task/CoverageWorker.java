@@ -10,17 +10,25 @@ import lombok.extern.slf4j.Slf4j;
 import org.dom4j.Document;
 import org.dom4j.io.XMLWriter;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.tools.ExecFileLoader;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.*;
 import java.nio.file.Paths;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.gt.jacoco.utils.JacocoXmlUtils.recountCoverage;
 
@@ -29,7 +37,18 @@ import static com.gt.jacoco.utils.JacocoXmlUtils.recountCoverage;
 @Slf4j
 public class CoverageWorker {
 
-    private static final Map<String, RegisterInfo> REGISTER_TABLE = new HashMap<>();
+    private static final String REPORT_MODE_STREAM = "stream";
+
+    private static final String REPORT_MODE_BUNDLE = "bundle";
+
+    private static final Map<String, RegisterInfo> REGISTER_TABLE = new ConcurrentHashMap<>();
+
+    /**
+     * 正在执行收集任务的应用，保证同一个应用同时只有一个收集周期
+     */
+    private static final Set<String> RUNNING_APPLICATIONS = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService collectExecutor;
 
     @Autowired
     private JacocoAgentUtils jacocoAgentUtils;
@@ -37,12 +56,31 @@ public class CoverageWorker {
     @Autowired
     private GitUtils gitUtils;
 
+    @Autowired
+    private ChangedMethodCacheUtils changedMethodCacheUtils;
+
     @Autowired
     private ASTUtils astUtils;
 
     @Autowired
     private Config config;
 
+    @PostConstruct
+    public void init() {
+        int parallelism = Math.max(1, config.getWorkerParallelism());
+        AtomicInteger threadIndex = new AtomicInteger();
+        collectExecutor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "coverage-worker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        collectExecutor.shutdownNow();
+    }
+
     public RegisterInfo register(RegisterRequest registerRequest) {
         RegisterInfo info = new RegisterInfo();
         BeanUtils.copyProperties(registerRequest, info);
@@ -51,47 +89,131 @@ public class CoverageWorker {
         return info;
     }
 
+    /**
+     * 调度入口：把每个应用的收集周期提交到工作线程池，上一轮尚未结束的应用本轮跳过
+     */
     @Scheduled(fixedDelay = 10000)
     public void handler() {
         log.info("任务调度: {}", REGISTER_TABLE.keySet());
         for (String applicationName : REGISTER_TABLE.keySet()) {
-            RegisterInfo registerInfo = REGISTER_TABLE.get(applicationName);
+            if (!RUNNING_APPLICATIONS.add(applicationName)) {
+                log.info("上一轮收集尚未结束, 跳过: {}", applicationName);
+                continue;
+            }
             try {
-                jacocoAgentUtils.fetchData(registerInfo);
-                renameLatestXml(registerInfo.getApplicationName());
-
-                String newXmlFile = Paths.get(config.getXmlDataDir(), registerInfo.getApplicationName() + ".xml").toString();
-                String oldFilePath = Paths.get(config.getXmlDataDir(), applicationName + "_old.xml").toString();
-
-                jacocoAgentUtils.generateXmlReport(registerInfo);
-                Document document = JacocoXmlUtils.loadFile(newXmlFile);
-                List<DiffEntry> differenceFiles = gitUtils.findDifferenceFiles(registerInfo.getGitDir(), registerInfo.getOldBranch(), registerInfo.getNewBranch());
-                Map<String, List<MethodReference>> multiJavaFilesMethodChanged = astUtils.findMultiJavaFilesMethodChanged(registerInfo.getGitDir(), differenceFiles,  registerInfo.getOldBranch(), registerInfo.getNewBranch());
-                JacocoXmlUtils.refactorJacocoXml(document, multiJavaFilesMethodChanged);
-                File oldFile = new File(oldFilePath);
-                if (oldFile.exists()) {
-                    Document oldXml = JacocoXmlUtils.loadFile(oldFilePath);
-                    JacocoXmlUtils.merge(oldXml, document);
-                    recountCoverage(document);
-                }
-                try (FileWriter fileWriter = new FileWriter(newXmlFile)) {
-                    XMLWriter writer = new XMLWriter(fileWriter);
-                    writer.write(document);
-                    writer.close();
-                }
-                Process exec = Runtime.getRuntime().exec(new String[]{
-                        "/bin/sh", "-c", String.format("cd %s && mvn sonar:sonar -Dsonar.coverage.jacoco.xmlReportPaths=%s", registerInfo.getGitDir(), newXmlFile)
+                collectExecutor.execute(() -> {
+                    try {
+                        RegisterInfo registerInfo = REGISTER_TABLE.get(applicationName);
+                        if (registerInfo != null) {
+                            collect(registerInfo);
+                        }
+                    } finally {
+                        RUNNING_APPLICATIONS.remove(applicationName);
+                    }
                 });
-                CommonUtils.printShellOutput(exec);
-            } catch (Exception e) {
-                registerInfo.setFailTimes(registerInfo.getFailTimes() + 1);
-                REGISTER_TABLE.put(registerInfo.getApplicationName(), registerInfo);
-                log.error("无法访问服务: {}", JSONObject.toJSONString(registerInfo));
-                e.printStackTrace();
+            } catch (RejectedExecutionException e) {
+                RUNNING_APPLICATIONS.remove(applicationName);
+                log.error("提交收集任务失败: {}", applicationName);
             }
         }
     }
 
+    /**
+     * 单个应用的一次完整收集周期
+     *
+     * @param registerInfo
+     */
+    private void collect(RegisterInfo registerInfo) {
+        String applicationName = registerInfo.getApplicationName();
+        try {
+            ExecutionDataStore executionDataStore = jacocoAgentUtils.fetchData(registerInfo);
+            String probeDigest = jacocoAgentUtils.probeDigest(executionDataStore);
+            jacocoAgentUtils.prepareSource(registerInfo);
+            String oldCommitId = gitUtils.getRemoteHead(registerInfo.getGitDir(), registerInfo.getOldBranch());
+            String newCommitId = gitUtils.getRemoteHead(registerInfo.getGitDir(), registerInfo.getNewBranch());
+            boolean sourceChanged = !Objects.equals(oldCommitId, registerInfo.getLastOldCommitId())
+                    || !Objects.equals(newCommitId, registerInfo.getLastNewCommitId());
+            if (!sourceChanged && probeDigest.equals(registerInfo.getLastProbeDigest())) {
+                log.info("探针数据与代码均无变化, 跳过: {}", applicationName);
+                return;
+            }
+            renameLatestXml(registerInfo.getApplicationName());
+
+            String newXmlFile = Paths.get(config.getXmlDataDir(), registerInfo.getApplicationName() + ".xml").toString();
+            String oldFilePath = Paths.get(config.getXmlDataDir(), applicationName + "_old.xml").toString();
+
+            Map<String, List<MethodReference>> multiJavaFilesMethodChanged = changedMethodCacheUtils.get(applicationName, oldCommitId, newCommitId);
+            if (multiJavaFilesMethodChanged == null) {
+                multiJavaFilesMethodChanged = findMethodChanged(registerInfo);
+                changedMethodCacheUtils.put(applicationName, oldCommitId, newCommitId, multiJavaFilesMethodChanged);
+            } else {
+                log.info("两条分支都没有移动, 复用改动方法: {}", applicationName);
+            }
+            ExecFileLoader execFileLoader = jacocoAgentUtils.loadExecutionData(registerInfo);
+            IBundleCoverage bundleCoverage = jacocoAgentUtils.analyze(registerInfo, execFileLoader, multiJavaFilesMethodChanged.keySet());
+            if (REPORT_MODE_BUNDLE.equals(config.getReportMode())) {
+                JacocoXmlStreamUtils.writeIncrementalReport(newXmlFile, oldFilePath, execFileLoader.getSessionInfoStore().getInfos(), bundleCoverage
+                        , multiJavaFilesMethodChanged, config.getIncrementalRecount());
+            } else {
+                jacocoAgentUtils.writeXmlReport(registerInfo, execFileLoader, bundleCoverage);
+                if (REPORT_MODE_STREAM.equals(config.getReportMode())) {
+                    JacocoXmlStreamUtils.refactorAndMerge(newXmlFile, oldFilePath, multiJavaFilesMethodChanged, config.getIncrementalRecount());
+                } else {
+                    refactorAndMergeDocument(newXmlFile, oldFilePath, multiJavaFilesMethodChanged);
+                }
+            }
+            Process exec = Runtime.getRuntime().exec(new String[]{
+                    "/bin/sh", "-c", String.format("cd %s && mvn sonar:sonar -Dsonar.coverage.jacoco.xmlReportPaths=%s", gitUtils.getWorktree(registerInfo, registerInfo.getNewBranch()), newXmlFile)
+            });
+            CommonUtils.printShellOutput(exec);
+
+            registerInfo.setLastProbeDigest(probeDigest);
+            registerInfo.setLastOldCommitId(oldCommitId);
+            registerInfo.setLastNewCommitId(newCommitId);
+            registerInfo.setRunTimes(registerInfo.getRunTimes() + 1);
+            registerInfo.setLastRunTime(System.currentTimeMillis());
+        } catch (Exception e) {
+            registerInfo.setFailTimes(registerInfo.getFailTimes() + 1);
+            log.error("无法访问服务: {}", JSONObject.toJSONString(registerInfo));
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 对比两条分支，找出新分支中有改动的方法
+     *
+     * @param registerInfo
+     * @return
+     */
+    private Map<String, List<MethodReference>> findMethodChanged(RegisterInfo registerInfo) {
+        List<DiffEntry> differenceFiles = gitUtils.findDifferenceFiles(registerInfo.getGitDir(), registerInfo.getOldBranch(), registerInfo.getNewBranch());
+        return astUtils.findMultiJavaFilesMethodChanged(registerInfo.getGitDir(), differenceFiles, registerInfo.getOldBranch(), registerInfo.getNewBranch());
+    }
+
+    /**
+     * 以 dom4j 文档的方式重构报告并合并历史覆盖率
+     *
+     * @param newXmlFile
+     * @param oldFilePath
+     * @param multiJavaFilesMethodChanged
+     */
+    private void refactorAndMergeDocument(String newXmlFile, String oldFilePath, Map<String, List<MethodReference>> multiJavaFilesMethodChanged) throws IOException {
+        Document document = JacocoXmlUtils.loadFile(newXmlFile);
+        JacocoXmlDirtyTracker tracker = config.getIncrementalRecount() ? JacocoXmlDirtyTracker.incremental() : JacocoXmlDirtyTracker.full();
+        JacocoXmlUtils.refactorJacocoXml(document, multiJavaFilesMethodChanged, tracker);
+        File oldFile = new File(oldFilePath);
+        if (oldFile.exists()) {
+            Document oldXml = JacocoXmlUtils.loadFile(oldFilePath);
+            JacocoXmlUtils.merge(oldXml, document, tracker);
+            recountCoverage(document, tracker);
+        }
+        try (FileWriter fileWriter = new FileWriter(newXmlFile)) {
+            XMLWriter writer = new XMLWriter(fileWriter);
+            writer.write(document);
+            writer.close();
+        }
+    }
+
     private void renameLatestXml(String applicationName) {
         String newXmlFile = Paths.get(config.getXmlDataDir(), applicationName + ".xml").toString();
         File latestFile = new File(newXmlFile);
@@ -1,76 +1,197 @@
 package com.gt.jacoco.utils;
 
 import com.github.javaparser.JavaParser;
+import com.github.javaparser.JavaToken;
 import com.github.javaparser.ParseResult;
+import com.github.javaparser.TokenRange;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.ImportDeclaration;
 import com.github.javaparser.ast.Node;
-import com.github.javaparser.ast.NodeList;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.ast.body.Parameter;
-import com.github.javaparser.ast.comments.Comment;
-import com.github.javaparser.resolution.UnsolvedSymbolException;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.gt.jacoco.config.Config;
 import com.gt.jacoco.entity.MethodReference;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 public class ASTUtils {
 
-    private static final JavaParser JAVA_PARSER;
+    /**
+     * JavaParser 不是线程安全的，每个收集线程和并行对比线程持有自己的实例，
+     * 参数类型由 DescriptorResolver 解析，不需要 SymbolSolver
+     */
+    private static final ThreadLocal<JavaParser> JAVA_PARSER = ThreadLocal.withInitial(JavaParser::new);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final char TOKEN_SEPARATOR = 0;
 
     @Autowired
     private GitUtils gitUtils;
 
-    static {
-        JAVA_PARSER = new JavaParser();
-        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
-        combinedTypeSolver.add(new ReflectionTypeSolver());
-        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
-        JAVA_PARSER.getParserConfiguration().setSymbolResolver(symbolSolver);
+    @Autowired
+    private Config config;
+
+    @Autowired
+    private MethodSummaryCacheUtils methodSummaryCacheUtils;
+
+    /**
+     * 仓库目录 -> 解析参数类型时 ClassLoader 中类型是否存在的查询结果
+     */
+    private final Map<String, Map<String, Boolean>> classpathTypes = new ConcurrentHashMap<>();
+
+    /**
+     * 并行对比差异文件的线程池，astParallelism 不大于 1 时按顺序对比
+     */
+    private ForkJoinPool forkJoinPool;
+
+    @PostConstruct
+    public void init() {
+        if (config.getAstParallelism() > 1) {
+            forkJoinPool = new ForkJoinPool(config.getAstParallelism());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdownNow();
+        }
     }
 
     /**
      * 在多个变动的源码文件中寻找有改动的方法
+     * 每个 blob 的方法摘要只计算一次并缓存，只有没有摘要的 blob 才读取内容并解析
      *
      * @param differenceFiles
      * @return
      */
     public Map<String, List<MethodReference>> findMultiJavaFilesMethodChanged(String rootPath, List<DiffEntry> differenceFiles, String oldBranch, String newBranch) {
-        Map<String, List<MethodReference>> classChangedMethods = new HashMap<>();
+        Map<String, List<MethodReference>> classChangedMethods = new ConcurrentHashMap<>();
+        Map<ObjectId, Map<String, List<MethodReference>>> summaries = new ConcurrentHashMap<>();
+        Set<ObjectId> missingBlobIds = new HashSet<>();
         for (DiffEntry diffEntry : differenceFiles) {
-            switch (diffEntry.getChangeType()) {
-                case MODIFY: {
-                    String oldContent = gitUtils.getFile(rootPath, diffEntry.getNewPath(), oldBranch);
-                    String newContent = gitUtils.getFile(rootPath, diffEntry.getNewPath(), newBranch);
-                    Map<String, List<MethodReference>> singleJavaFileMethodChanged = findSingleJavaFileMethodChanged(oldContent, newContent);
-                    classChangedMethods.putAll(singleJavaFileMethodChanged);
-                    break;
+            for (AbbreviatedObjectId abbreviatedId : new AbbreviatedObjectId[]{diffEntry.getOldId(), diffEntry.getNewId()}) {
+                if (abbreviatedId == null || !abbreviatedId.isComplete() || ObjectId.zeroId().equals(abbreviatedId.toObjectId())) {
+                    continue;
                 }
-                case ADD: {
-                    String newContent = gitUtils.getFile(rootPath, diffEntry.getNewPath(), newBranch);
-                    Map<String, List<MethodReference>> singleJavaFileMethod = collectClassesAndMethodOfSingleJavaFile(newContent);
-                    classChangedMethods.putAll(singleJavaFileMethod);
-                    break;
+                ObjectId blobId = abbreviatedId.toObjectId();
+                Map<String, List<MethodReference>> summary = methodSummaryCacheUtils.get(blobId);
+                if (summary != null) {
+                    summaries.put(blobId, summary);
+                } else {
+                    missingBlobIds.add(blobId);
                 }
             }
         }
+        Map<ObjectId, String> contents;
+        try {
+            contents = gitUtils.getBlobContents(rootPath, missingBlobIds);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            contents = new HashMap<>();
+        }
+        log.info("差异文件 {} 个, 复用方法摘要 {} 个, 需要解析 {} 个", differenceFiles.size(), summaries.size(), missingBlobIds.size());
+        final Map<ObjectId, String> fileContents = contents;
+        Set<String> projectTypes = new HashSet<>(gitUtils.listSourceTypes(rootPath, oldBranch));
+        projectTypes.addAll(gitUtils.listSourceTypes(rootPath, newBranch));
+        final DescriptorResolver descriptorResolver = new DescriptorResolver(projectTypes,
+                classpathTypes.computeIfAbsent(rootPath, path -> new ConcurrentHashMap<>()));
+        if (forkJoinPool == null || differenceFiles.size() < 2) {
+            for (DiffEntry diffEntry : differenceFiles) {
+                classChangedMethods.putAll(findSingleDiffEntryMethodChanged(summaries, fileContents, descriptorResolver, rootPath, diffEntry, oldBranch, newBranch));
+            }
+            return classChangedMethods;
+        }
+        try {
+            forkJoinPool.submit(() -> differenceFiles.parallelStream()
+                    .forEach(diffEntry -> classChangedMethods.putAll(findSingleDiffEntryMethodChanged(summaries, fileContents, descriptorResolver, rootPath, diffEntry, oldBranch, newBranch))))
+                    .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
         return classChangedMethods;
     }
 
+    /**
+     * 在一个差异文件中寻找有改动的方法，只使用当前线程的 JavaParser，可以在多个线程中同时执行
+     *
+     * @param summaries
+     * @param contents
+     * @param descriptorResolver
+     * @param rootPath
+     * @param diffEntry
+     * @param oldBranch
+     * @param newBranch
+     * @return
+     */
+    private Map<String, List<MethodReference>> findSingleDiffEntryMethodChanged(Map<ObjectId, Map<String, List<MethodReference>>> summaries, Map<ObjectId, String> contents
+            , DescriptorResolver descriptorResolver, String rootPath, DiffEntry diffEntry, String oldBranch, String newBranch) {
+        switch (diffEntry.getChangeType()) {
+            case MODIFY: {
+                Map<String, List<MethodReference>> oldSummary = getSummary(summaries, contents, descriptorResolver, diffEntry.getOldId(), rootPath, diffEntry.getNewPath(), oldBranch);
+                Map<String, List<MethodReference>> newSummary = getSummary(summaries, contents, descriptorResolver, diffEntry.getNewId(), rootPath, diffEntry.getNewPath(), newBranch);
+                if (oldSummary == null || newSummary == null) {
+                    return Collections.emptyMap();
+                }
+                EditList edits = config.getHunkGuidedDiff() ? gitUtils.getEdits(rootPath, diffEntry.getOldId(), diffEntry.getNewId()) : null;
+                return diffSummary(oldSummary, newSummary, edits);
+            }
+            case ADD: {
+                Map<String, List<MethodReference>> newSummary = getSummary(summaries, contents, descriptorResolver, diffEntry.getNewId(), rootPath, diffEntry.getNewPath(), newBranch);
+                return newSummary == null ? Collections.emptyMap() : newSummary;
+            }
+            default:
+                return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * 获取 blob 的方法摘要，没有缓存时解析内容并写入缓存，blob id 不完整时按分支路径读取且不缓存
+     *
+     * @return 无法解析时返回 null
+     */
+    private Map<String, List<MethodReference>> getSummary(Map<ObjectId, Map<String, List<MethodReference>>> summaries, Map<ObjectId, String> contents
+            , DescriptorResolver descriptorResolver, AbbreviatedObjectId abbreviatedId, String rootPath, String filePath, String branch) {
+        ObjectId blobId = abbreviatedId != null && abbreviatedId.isComplete() ? abbreviatedId.toObjectId() : null;
+        if (blobId == null) {
+            return summarize(gitUtils.getFile(rootPath, filePath, branch), descriptorResolver);
+        }
+        Map<String, List<MethodReference>> summary = summaries.get(blobId);
+        if (summary != null) {
+            return summary;
+        }
+        String content = contents.get(blobId);
+        summary = summarize(content != null ? content : gitUtils.getFile(rootPath, filePath, branch), descriptorResolver);
+        if (summary != null) {
+            summaries.put(blobId, summary);
+            methodSummaryCacheUtils.put(blobId, summary);
+        }
+        return summary;
+    }
+
     /**
      * 在一个源码文件中寻找有改动的方法以及找出使用lombok注解的类
      * eg: Map<类名, 修改过的方法列表>
@@ -80,35 +201,24 @@ public class ASTUtils {
      * @return
      */
     public Map<String, List<MethodReference>> findSingleJavaFileMethodChanged(String oldJavaContent, String newJavaContent) {
-        Map<String, List<MethodReference>> classChangedMethods = new HashMap<>();
-        try {
-            ParseResult<CompilationUnit> oldJavaResult = JAVA_PARSER.parse(oldJavaContent);
-            ParseResult<CompilationUnit> newJavaResult = JAVA_PARSER.parse(newJavaContent);
-            if (oldJavaResult.getResult().isPresent() && newJavaResult.getResult().isPresent()) {
-                CompilationUnit oldCompilationUnit = oldJavaResult.getResult().get();
-                CompilationUnit newCompilationUnit = newJavaResult.getResult().get();
-                Map<String, ClassOrInterfaceDeclaration> classDefinitionsInOldFile = getClassDefinitionInCurrentFile(oldCompilationUnit);
-                Map<String, ClassOrInterfaceDeclaration> classDefinitionsInNewFile = getClassDefinitionInCurrentFile(newCompilationUnit);
-                for (String classAbsoluteNameInNewFile : classDefinitionsInNewFile.keySet()) {
-                    if (classDefinitionsInOldFile.containsKey(classAbsoluteNameInNewFile)) {
-                        Map<String, MethodDeclaration> functionDefinitionInNewClass = getFunctionDefinitionInClass(classDefinitionsInNewFile.get(classAbsoluteNameInNewFile));
-                        Map<String, MethodDeclaration> functionDefinitionInOldClass = getFunctionDefinitionInClass(classDefinitionsInOldFile.get(classAbsoluteNameInNewFile));
-                        List<MethodReference> methodChangeList = findChangeMethodInClass(functionDefinitionInOldClass, functionDefinitionInNewClass);
-                        classChangedMethods.put(classAbsoluteNameInNewFile, methodChangeList);
-                    } else {
-                        Map<String, MethodDeclaration> allFunctionAreNewAdd = getFunctionDefinitionInClass(classDefinitionsInNewFile.get(classAbsoluteNameInNewFile));
-                        classChangedMethods.put(classAbsoluteNameInNewFile, allFunctionAreNewAdd.keySet()
-                                .stream()
-                                .map(functionName -> new MethodReference(functionName, allFunctionAreNewAdd.get(functionName), methodBodyHash(allFunctionAreNewAdd.get(functionName))))
-                                .collect(Collectors.toList()));
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            log.error(e.getMessage());
+        return findSingleJavaFileMethodChanged(oldJavaContent, newJavaContent, new DescriptorResolver(Collections.emptySet()));
+    }
+
+    /**
+     * 在一个源码文件中寻找有改动的方法，用仓库内的类型解析参数描述符
+     *
+     * @param oldJavaContent
+     * @param newJavaContent
+     * @param descriptorResolver
+     * @return
+     */
+    public Map<String, List<MethodReference>> findSingleJavaFileMethodChanged(String oldJavaContent, String newJavaContent, DescriptorResolver descriptorResolver) {
+        Map<String, List<MethodReference>> oldSummary = summarize(oldJavaContent, descriptorResolver);
+        Map<String, List<MethodReference>> newSummary = summarize(newJavaContent, descriptorResolver);
+        if (oldSummary == null || newSummary == null) {
+            return new HashMap<>();
         }
-        return classChangedMethods;
+        return diffSummary(oldSummary, newSummary, null);
     }
 
     /**
@@ -119,70 +229,165 @@ public class ASTUtils {
      * @return
      */
     public Map<String, List<MethodReference>> collectClassesAndMethodOfSingleJavaFile(String javContent) {
-        Map<String, List<MethodReference>> classChangedMethods = new HashMap<>();
+        return collectClassesAndMethodOfSingleJavaFile(javContent, new DescriptorResolver(Collections.emptySet()));
+    }
+
+    /**
+     * 获取一个文件里面所有的类和方法，用仓库内的类型解析参数描述符
+     *
+     * @param javContent
+     * @param descriptorResolver
+     * @return
+     */
+    public Map<String, List<MethodReference>> collectClassesAndMethodOfSingleJavaFile(String javContent, DescriptorResolver descriptorResolver) {
+        Map<String, List<MethodReference>> summary = summarize(javContent, descriptorResolver);
+        return summary == null ? new HashMap<>() : summary;
+    }
+
+    /**
+     * 解析源码文件，得到每个类的所有方法的描述、方法体指纹和行号，语法树在返回后即可回收
+     * eg: Map<类名, 方法列表>
+     *
+     * @param javaContent
+     * @param descriptorResolver
+     * @return 无法解析时返回 null
+     */
+    private Map<String, List<MethodReference>> summarize(String javaContent, DescriptorResolver descriptorResolver) {
         try {
-            ParseResult<CompilationUnit> javaResult = JAVA_PARSER.parse(javContent);
-            if (javaResult.getResult().isPresent()) {
-                Map<String, ClassOrInterfaceDeclaration> classDefinitionsInNewFile = getClassDefinitionInCurrentFile(javaResult.getResult().get());
-                for (String classAbsoluteName : classDefinitionsInNewFile.keySet()) {
-                    Map<String, MethodDeclaration> allFunctionAreNewAdd = getFunctionDefinitionInClass(classDefinitionsInNewFile.get(classAbsoluteName));
-                    classChangedMethods.put(classAbsoluteName, allFunctionAreNewAdd.keySet()
-                            .stream()
-                            .map(functionName -> new MethodReference(functionName, allFunctionAreNewAdd.get(functionName), methodBodyHash(allFunctionAreNewAdd.get(functionName))))
-                            .collect(Collectors.toList()));
-                }
+            ParseResult<CompilationUnit> javaResult = JAVA_PARSER.get().parse(javaContent);
+            if (!javaResult.getResult().isPresent()) {
+                return null;
+            }
+            Map<String, List<MethodReference>> summary = new LinkedHashMap<>();
+            Map<String, ClassOrInterfaceDeclaration> classDefinitions = getClassDefinitionInCurrentFile(javaResult.getResult().get());
+            for (String classAbsoluteName : classDefinitions.keySet()) {
+                Map<String, MethodDeclaration> functionDefinitions = getFunctionDefinitionInClass(classDefinitions.get(classAbsoluteName), descriptorResolver);
+                summary.put(classAbsoluteName, functionDefinitions.keySet()
+                        .stream()
+                        .map(functionName -> methodReference(functionName, functionDefinitions.get(functionName), methodFingerprint(functionDefinitions.get(functionName))))
+                        .collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList)));
             }
+            return summary;
         } catch (Exception e) {
             e.printStackTrace();
             log.error(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 对比同一个文件新旧两个版本的方法摘要，新版本中新增的类全部方法都算改动，
+     * 方法新增、有无方法体变化或方法体指纹不同时算改动。
+     * 传入文件的编辑区间时，行号范围与任何编辑区间都不重叠的方法只确认旧版本中存在同名方法，不再比较方法体指纹
+     *
+     * @param oldSummary
+     * @param newSummary
+     * @param edits      新旧版本之间的编辑区间，为 null 时比较所有方法
+     * @return
+     */
+    private static Map<String, List<MethodReference>> diffSummary(Map<String, List<MethodReference>> oldSummary, Map<String, List<MethodReference>> newSummary, EditList edits) {
+        Map<String, List<MethodReference>> classChangedMethods = new HashMap<>();
+        for (Map.Entry<String, List<MethodReference>> newClass : newSummary.entrySet()) {
+            List<MethodReference> oldMethods = oldSummary.get(newClass.getKey());
+            if (oldMethods == null) {
+                classChangedMethods.put(newClass.getKey(), newClass.getValue());
+                continue;
+            }
+            Map<String, MethodReference> oldMethodsByName = new HashMap<>();
+            for (MethodReference oldMethod : oldMethods) {
+                oldMethodsByName.put(oldMethod.getMethodNameWithParams(), oldMethod);
+            }
+            List<MethodReference> methodChangeList = new ArrayList<>();
+            for (MethodReference newMethod : newClass.getValue()) {
+                MethodReference oldMethod = oldMethodsByName.get(newMethod.getMethodNameWithParams());
+                if (oldMethod == null) {
+                    methodChangeList.add(newMethod);
+                } else if ((edits == null || overlapsEdit(newMethod, edits)) && oldMethod.getBodyFingerprint() != newMethod.getBodyFingerprint()) {
+                    methodChangeList.add(newMethod);
+                }
+            }
+            classChangedMethods.put(newClass.getKey(), Collections.unmodifiableList(methodChangeList));
         }
         return classChangedMethods;
     }
 
     /**
-     * 查找两个类之间的差异方法
+     * 判断方法的行号范围是否与编辑区间重叠，编辑区间按新版本的行号升序排列，
+     * 只删除行的编辑按删除位置的一行处理，行号未知时视为重叠
      *
-     * @param functionDefinitionInOldClass
-     * @param functionDefinitionInNewClass
+     * @param method
+     * @param edits
      * @return
      */
-    private List<MethodReference> findChangeMethodInClass(Map<String, MethodDeclaration> functionDefinitionInOldClass
-            , Map<String, MethodDeclaration> functionDefinitionInNewClass) {
-        List<MethodReference> methodChangeList = new ArrayList<>();
-        for (String functionName : functionDefinitionInNewClass.keySet()) {
-            if (!functionDefinitionInOldClass.containsKey(functionName)) {
-                methodChangeList.add(new MethodReference(functionName, functionDefinitionInNewClass.get(functionName), methodBodyHash(functionDefinitionInNewClass.get(functionName))));
+    private static boolean overlapsEdit(MethodReference method, EditList edits) {
+        if (method.getBeginLine() < 1 || method.getEndLine() < method.getBeginLine()) {
+            return true;
+        }
+        int from = method.getBeginLine() - 1;
+        int to = method.getEndLine();
+        int low = 0;
+        int high = edits.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Edit edit = edits.get(mid);
+            if (Math.max(edit.getEndB(), edit.getBeginB() + 1) <= from) {
+                low = mid + 1;
             } else {
-                MethodDeclaration methodDeclarationInNew = functionDefinitionInNewClass.get(functionName);
-                MethodDeclaration methodDeclarationInOld = functionDefinitionInOldClass.get(functionName);
-                if (methodDeclarationInNew.getBody().isPresent() ^ methodDeclarationInOld.getBody().isPresent()) {
-                    methodChangeList.add(new MethodReference(functionName, functionDefinitionInNewClass.get(functionName), methodBodyHash(functionDefinitionInNewClass.get(functionName))));
-                } else if (methodDeclarationInNew.getBody().isPresent() & methodDeclarationInOld.getBody().isPresent()) {
-                    List<Comment> newComments = methodDeclarationInNew.getBody().get().getAllContainedComments();
-                    for (Comment comment : newComments) {
-                        comment.remove();
-                    }
-                    List<Comment> oldComments = methodDeclarationInNew.getBody().get().getAllContainedComments();
-                    for (Comment comment : oldComments) {
-                        comment.remove();
-                    }
-                    String newBody = methodDeclarationInNew.getBody().get().toString().replaceAll("\r|\n|\\s", "");
-                    String oldBody = methodDeclarationInOld.getBody().get().toString().replaceAll("\r|\n|\\s", "");
-                    if (!newBody.equals(oldBody)) {
-                        methodChangeList.add(new MethodReference(functionName, functionDefinitionInNewClass.get(functionName), methodBodyHash(functionDefinitionInNewClass.get(functionName))));
-                    }
-                }
+                high = mid;
             }
         }
-        return methodChangeList;
+        return low < edits.size() && edits.get(low).getBeginB() < to;
+    }
+
+    private static long methodFingerprint(MethodDeclaration methodDeclaration) {
+        return methodDeclaration.getBody().map(ASTUtils::bodyFingerprint).orElse(0L);
+    }
+
+    /**
+     * 生成不引用语法树的改动方法索引项
+     *
+     * @param functionName
+     * @param methodDeclaration
+     * @param fingerprint
+     * @return
+     */
+    private static MethodReference methodReference(String functionName, MethodDeclaration methodDeclaration, long fingerprint) {
+        int beginLine = methodDeclaration.getBegin().map(position -> position.line).orElse(-1);
+        int endLine = methodDeclaration.getEnd().map(position -> position.line).orElse(-1);
+        return new MethodReference(functionName, fingerprint, beginLine, endLine);
     }
 
-    private String methodBodyHash(MethodDeclaration methodDeclaration) {
-        if (methodDeclaration.getBody().isPresent()) {
-            return String.valueOf(methodDeclaration.getBody().get().toString().replaceAll("\r|\n|\\s", "").hashCode());
-        } else {
-            return "0";
+    /**
+     * 按 token 流计算方法体的 64 位 FNV-1a 指纹，跳过空白和注释，不生成中间字符串，
+     * token 之间加入分隔符，避免 "a b" 与 "ab" 得到相同的指纹
+     *
+     * @param body
+     * @return
+     */
+    static long bodyFingerprint(BlockStmt body) {
+        long hash = FNV_OFFSET_BASIS;
+        Optional<TokenRange> tokenRange = body.getTokenRange();
+        if (tokenRange.isPresent()) {
+            for (JavaToken token : tokenRange.get()) {
+                if (token.getCategory().isWhitespaceOrComment()) {
+                    continue;
+                }
+                String text = token.getText();
+                for (int idx = 0; idx < text.length(); idx++) {
+                    hash = (hash ^ text.charAt(idx)) * FNV_PRIME;
+                }
+                hash = (hash ^ TOKEN_SEPARATOR) * FNV_PRIME;
+            }
+            return hash;
+        }
+        String text = body.toString();
+        for (int idx = 0; idx < text.length(); idx++) {
+            char ch = text.charAt(idx);
+            if (!Character.isWhitespace(ch)) {
+                hash = (hash ^ ch) * FNV_PRIME;
+            }
         }
+        return hash;
     }
 
 
@@ -256,83 +461,19 @@ public class ASTUtils {
         return absoluteClassName.toString().replaceAll("\\.", "/");
     }
 
-    /**
-     * 获取方法声明（包含方法名跟参数全路径）
-     * eg: saySomethingToWorld(Ljava/lang/String;)
-     *
-     * @param methodDeclaration
-     * @return
-     */
-    private String getMethodDefinitionName(MethodDeclaration methodDeclaration) {
-        StringBuilder expression = new StringBuilder();
-        expression.insert(0, "()");
-        NodeList<Parameter> parameters = methodDeclaration.getParameters();
-        for (Parameter parameter : parameters) {
-            try {
-                String describe = parameter.getType().resolve().describe();
-                expression.insert(expression.length() - 1, "L");
-                expression.insert(expression.length() - 1, describe.replaceAll("\\.", "/"));
-                expression.insert(expression.length() - 1, ";");
-            } catch (UnsolvedSymbolException e) {
-                String unresolvedClassName = e.getName();
-                StringBuilder importTips = new StringBuilder();
-                if (unresolvedClassName.contains(".")) {
-                    int firstIdx = unresolvedClassName.indexOf(".");
-                    importTips.append(findImportTips(unresolvedClassName.substring(0, firstIdx), methodDeclaration));
-                    importTips.append(unresolvedClassName.substring(firstIdx));
-                } else {
-                    importTips.append(findImportTips(unresolvedClassName, methodDeclaration));
-                }
-                expression.insert(expression.length() - 1, "L");
-                expression.insert(expression.length() - 1, importTips.toString().replaceAll("\\.", "/"));
-                expression.insert(expression.length() - 1, ";");
-            }
-        }
-        expression.insert(0, methodDeclaration.getNameAsString());
-        return expression.toString();
-    }
-
-    /**
-     * 解析类名，获取全路径名
-     * eg: String  -->  java.lang.String
-     *
-     * @param className
-     * @param node
-     * @return
-     */
-    private String findImportTips(String className, Node node) {
-        while (!(node instanceof CompilationUnit)) {
-            if (!node.getParentNode().isPresent()) {
-                return className;
-            } else {
-                node = node.getParentNode().get();
-            }
-        }
-        NodeList<ImportDeclaration> imports = ((CompilationUnit) node).getImports();
-        for (ImportDeclaration importDeclaration : imports) {
-            if (importDeclaration.getName().getIdentifier().equals(className)) {
-                if (importDeclaration.getName().getQualifier().isPresent()) {
-                    return importDeclaration.getName().getQualifier().get().asString() + "." + importDeclaration.getName().getIdentifier();
-                } else {
-                    return importDeclaration.getName().getIdentifier();
-                }
-            }
-        }
-        return className;
-    }
-
     /**
      * 获取一个类里面的方法定义
      *
      * @param classOrInterfaceDeclaration
+     * @param descriptorResolver
      * @return
      */
-    private Map<String, MethodDeclaration> getFunctionDefinitionInClass(ClassOrInterfaceDeclaration classOrInterfaceDeclaration) {
+    private Map<String, MethodDeclaration> getFunctionDefinitionInClass(ClassOrInterfaceDeclaration classOrInterfaceDeclaration, DescriptorResolver descriptorResolver) {
         Map<String, MethodDeclaration> methodDeclarations = new HashMap<>();
         List<Node> childNodes = classOrInterfaceDeclaration.getChildNodes();
         for (Node node : childNodes) {
             if (node instanceof MethodDeclaration) {
-                methodDeclarations.put(getMethodDefinitionName((MethodDeclaration) node), (MethodDeclaration) node);
+                methodDeclarations.put(descriptorResolver.getMethodDefinitionName((MethodDeclaration) node), (MethodDeclaration) node);
             }
         }
         return methodDeclarations;
@@ -0,0 +1,414 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.config.Config;
+import com.gt.jacoco.entity.AgentEndpoint;
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.data.IExecutionDataVisitor;
+import org.jacoco.core.data.ISessionInfoVisitor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 非阻塞的 jacoco remote control 客户端，少量 selector 线程同时驱动所有 agent 连接。
+ * 每次 dump 有连接超时和整体超时；agent 在 dump 之后保持连接，空闲连接按地址保留，下一次 dump 直接发送命令，
+ * 复用的连接已经被 agent 关闭时重新连接一次。同一个地址总是由同一个 selector 线程处理，连接只在该线程内访问
+ */
+@Slf4j
+@Component
+public class AgentDumpClient {
+
+    /**
+     * 空闲连接保留的时间，超过后关闭
+     */
+    private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * 没有即将到期的 dump 时 selector 的最长等待时间
+     */
+    private static final long MAX_SELECT_MILLIS = 1000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private Config config;
+
+    private SelectorLoop[] loops;
+
+    @PostConstruct
+    public void init() throws IOException {
+        loops = new SelectorLoop[Math.max(1, config.getDumpSelectorThreads())];
+        for (int idx = 0; idx < loops.length; idx++) {
+            loops[idx] = new SelectorLoop("agent-dump-selector-" + (idx + 1));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (SelectorLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * 从一个 agent dump 运行时数据，数据边读边解码，交给 visitor 的调用都在 selector 线程中，
+     * 返回的 future 完成后调用方可以安全读取 visitor 中的数据
+     *
+     * @param endpoint
+     * @param sessionInfoVisitor
+     * @param executionDataVisitor
+     * @return 收到 agent 的确认时完成，连接失败、超时或数据不合法时异常完成
+     */
+    public CompletableFuture<Void> dump(AgentEndpoint endpoint, ISessionInfoVisitor sessionInfoVisitor, IExecutionDataVisitor executionDataVisitor) {
+        String address = endpoint.getHost() + ":" + endpoint.getPort();
+        DumpRequest request = new DumpRequest(address, new InetSocketAddress(endpoint.getHost(), endpoint.getPort()),
+                sessionInfoVisitor, executionDataVisitor, System.currentTimeMillis() + config.getDumpTimeoutMillis());
+        loops[Math.floorMod(address.hashCode(), loops.length)].submit(request);
+        return request.future;
+    }
+
+    private static class DumpRequest {
+
+        private final String address;
+
+        private final InetSocketAddress socketAddress;
+
+        private final ISessionInfoVisitor sessionInfoVisitor;
+
+        private final IExecutionDataVisitor executionDataVisitor;
+
+        private final long deadline;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        /**
+         * 复用的连接失效后已经重新连接过
+         */
+        private boolean reconnected;
+
+        private DumpRequest(String address, InetSocketAddress socketAddress, ISessionInfoVisitor sessionInfoVisitor,
+                            IExecutionDataVisitor executionDataVisitor, long deadline) {
+            this.address = address;
+            this.socketAddress = socketAddress;
+            this.sessionInfoVisitor = sessionInfoVisitor;
+            this.executionDataVisitor = executionDataVisitor;
+            this.deadline = deadline;
+        }
+
+    }
+
+    /**
+     * 一个 agent 连接，正在 dump 时 request 不为 null，否则为空闲连接
+     */
+    private static class Connection {
+
+        private final String address;
+
+        private final SocketChannel channel;
+
+        private final RemoteControlDecoder decoder = new RemoteControlDecoder();
+
+        private SelectionKey key;
+
+        private ByteBuffer outgoing;
+
+        private ByteBuffer incoming = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private DumpRequest request;
+
+        /**
+         * 连接尚未建立时的连接超时时间，已建立时为 0
+         */
+        private long connectDeadline;
+
+        private boolean reused;
+
+        private boolean received;
+
+        private long lastUsed;
+
+        private Connection(String address, SocketChannel channel) {
+            this.address = address;
+            this.channel = channel;
+        }
+
+        private void begin(DumpRequest request, ByteBuffer outgoing, boolean reused) {
+            this.request = request;
+            this.outgoing = outgoing;
+            this.reused = reused;
+            this.received = false;
+            decoder.setVisitors(request.sessionInfoVisitor, request.executionDataVisitor);
+        }
+
+        private void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响结果
+            }
+        }
+
+    }
+
+    private class SelectorLoop implements Runnable {
+
+        private final Selector selector;
+
+        private final Thread thread;
+
+        private final Queue<DumpRequest> pending = new ConcurrentLinkedQueue<>();
+
+        private final Set<Connection> active = new HashSet<>();
+
+        private final Map<String, Connection> idle = new HashMap<>();
+
+        private volatile boolean running = true;
+
+        private SelectorLoop(String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void submit(DumpRequest request) {
+            pending.add(request);
+            selector.wakeup();
+            if (!running) {
+                failPending();
+            }
+        }
+
+        private void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(selectTimeout());
+                    DumpRequest request;
+                    while ((request = pending.poll()) != null) {
+                        start(request);
+                    }
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        if (key.isValid()) {
+                            handle((Connection) key.attachment(), key);
+                        }
+                    }
+                    expire();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("agent dump selector 线程异常退出: {}", thread.getName(), e);
+                running = false;
+            }
+            for (Connection connection : new ArrayList<>(active)) {
+                fail(connection, new IOException("agent dump 客户端已关闭"));
+            }
+            idle.values().forEach(Connection::close);
+            idle.clear();
+            failPending();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响结果
+            }
+        }
+
+        private void failPending() {
+            DumpRequest request;
+            while ((request = pending.poll()) != null) {
+                request.future.completeExceptionally(new IOException("agent dump 客户端已关闭"));
+            }
+        }
+
+        private long selectTimeout() {
+            long now = System.currentTimeMillis();
+            long timeout = MAX_SELECT_MILLIS;
+            for (Connection connection : active) {
+                long deadline = connection.connectDeadline > 0 ? Math.min(connection.connectDeadline, connection.request.deadline) : connection.request.deadline;
+                timeout = Math.min(timeout, deadline - now);
+            }
+            return Math.max(1L, timeout);
+        }
+
+        /**
+         * 优先使用该地址的空闲连接，没有时建立新连接
+         *
+         * @param request
+         */
+        private void start(DumpRequest request) {
+            Connection connection = idle.remove(request.address);
+            if (connection != null && connection.channel.isOpen()) {
+                connection.begin(request, RemoteControlDecoder.dumpCommand(), true);
+                connection.key.interestOps(SelectionKey.OP_WRITE);
+                active.add(connection);
+                return;
+            }
+            connect(request);
+        }
+
+        private void connect(DumpRequest request) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(request.address, channel);
+                connection.begin(request, RemoteControlDecoder.headerAndDumpCommand(), false);
+                boolean connected;
+                try {
+                    connected = channel.connect(request.socketAddress);
+                } catch (UnresolvedAddressException e) {
+                    throw new UnknownHostException(request.socketAddress.getHostString());
+                }
+                connection.connectDeadline = connected ? 0 : System.currentTimeMillis() + config.getDumpConnectTimeoutMillis();
+                connection.key = channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, connection);
+                active.add(connection);
+            } catch (IOException e) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // 关闭失败不影响结果
+                    }
+                }
+                request.future.completeExceptionally(e);
+            }
+        }
+
+        private void handle(Connection connection, SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    // 连接尚未完成时继续等待，超时由 connectDeadline 处理
+                    if (connection.channel.finishConnect()) {
+                        connection.connectDeadline = 0;
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                    return;
+                }
+                if (connection.request == null) {
+                    // 空闲连接只会在 agent 关闭连接时可读
+                    idle.remove(connection.address, connection);
+                    connection.close();
+                    return;
+                }
+                if (key.isWritable()) {
+                    connection.channel.write(connection.outgoing);
+                    if (!connection.outgoing.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                if (key.isReadable()) {
+                    read(connection);
+                }
+            } catch (IOException | RuntimeException e) {
+                retryOrFail(connection, e);
+            }
+        }
+
+        private void read(Connection connection) throws IOException {
+            if (connection.channel.read(connection.incoming) < 0) {
+                throw new IOException("Socket closed unexpectedly.");
+            }
+            connection.received = true;
+            connection.incoming.flip();
+            boolean done = connection.decoder.decode(connection.incoming);
+            connection.incoming.compact();
+            if (done) {
+                complete(connection);
+            } else if (!connection.incoming.hasRemaining()) {
+                // 一个 block 超过了缓冲区大小
+                ByteBuffer larger = ByteBuffer.allocate(connection.incoming.capacity() * 2);
+                connection.incoming.flip();
+                larger.put(connection.incoming);
+                connection.incoming = larger;
+            }
+        }
+
+        private void complete(Connection connection) {
+            DumpRequest request = connection.request;
+            active.remove(connection);
+            connection.request = null;
+            connection.lastUsed = System.currentTimeMillis();
+            connection.key.interestOps(SelectionKey.OP_READ);
+            Connection previous = idle.put(connection.address, connection);
+            if (previous != null) {
+                previous.close();
+            }
+            request.future.complete(null);
+        }
+
+        /**
+         * 复用的连接在收到任何数据之前失败，说明 agent 已经关闭了连接，重新连接一次
+         *
+         * @param connection
+         * @param e
+         */
+        private void retryOrFail(Connection connection, Exception e) {
+            DumpRequest request = connection.request;
+            if (request != null && connection.reused && !connection.received && !request.reconnected) {
+                active.remove(connection);
+                connection.close();
+                request.reconnected = true;
+                log.debug("复用的 agent 连接已失效, 重新连接: {}", connection.address);
+                connect(request);
+                return;
+            }
+            fail(connection, e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+
+        private void fail(Connection connection, IOException e) {
+            active.remove(connection);
+            connection.close();
+            if (connection.request != null) {
+                connection.request.future.completeExceptionally(e);
+                connection.request = null;
+            }
+        }
+
+        private void expire() {
+            long now = System.currentTimeMillis();
+            for (Connection connection : new ArrayList<>(active)) {
+                if (connection.connectDeadline > 0 && now >= connection.connectDeadline) {
+                    fail(connection, new SocketTimeoutException("连接 agent 超时: " + connection.address));
+                } else if (now >= connection.request.deadline) {
+                    fail(connection, new SocketTimeoutException("dump 运行时数据超时: " + connection.address));
+                }
+            }
+            Iterator<Connection> iterator = idle.values().iterator();
+            while (iterator.hasNext()) {
+                Connection connection = iterator.next();
+                if (now - connection.lastUsed >= IDLE_TIMEOUT_MILLIS) {
+                    iterator.remove();
+                    connection.close();
+                }
+            }
+        }
+
+    }
+
+}
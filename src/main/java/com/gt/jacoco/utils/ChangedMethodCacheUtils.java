@@ -0,0 +1,137 @@
+package com.gt.jacoco.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+import com.gt.jacoco.config.Config;
+import com.gt.jacoco.entity.MethodReference;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 缓存两条分支之间的改动方法，结果只取决于新旧两个 commit id，
+ * 内存中保存每个应用最近一次的结果，磁盘上保存为 {changedMethodCacheDir}/{applicationName}/{旧commit}_{新commit}.v3.json，
+ * 重启后两条分支都没有移动时可以直接复用，没有配置 changedMethodCacheDir 时只使用内存缓存
+ */
+@Slf4j
+@Component
+public class ChangedMethodCacheUtils {
+
+    /**
+     * 缓存内容的格式版本，MethodReference 的字段变化时修改，旧版本的文件会被忽略并在下次写入时删除
+     */
+    private static final String SUFFIX = ".v3.json";
+
+    private final Map<String, CacheEntry> memoryCache = new ConcurrentHashMap<>();
+
+    @Autowired
+    private Config config;
+
+    /**
+     * 是否在磁盘上保存改动方法，内存缓存总是启用
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        return config.getChangedMethodCacheDir() != null;
+    }
+
+    /**
+     * 获取缓存的改动方法，不存在时返回 null
+     *
+     * @param applicationName
+     * @param oldCommitId
+     * @param newCommitId
+     * @return
+     */
+    public Map<String, List<MethodReference>> get(String applicationName, String oldCommitId, String newCommitId) {
+        if (oldCommitId == null || newCommitId == null) {
+            return null;
+        }
+        String key = key(oldCommitId, newCommitId);
+        CacheEntry entry = memoryCache.get(applicationName);
+        if (entry != null && entry.key.equals(key)) {
+            return entry.methodChanged;
+        }
+        if (!isEnabled()) {
+            return null;
+        }
+        File file = Paths.get(config.getChangedMethodCacheDir(), applicationName, key + SUFFIX).toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Map<String, List<MethodReference>> methodChanged = JSON.parseObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8),
+                    new TypeReference<Map<String, List<MethodReference>>>() {
+                    });
+            memoryCache.put(applicationName, new CacheEntry(key, methodChanged));
+            return methodChanged;
+        } catch (Exception e) {
+            log.warn("改动方法缓存无法读取, 重新计算: {} {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 保存改动方法，同一个应用旧的缓存文件会被删除，没有配置 changedMethodCacheDir 时只保存在内存中
+     *
+     * @param applicationName
+     * @param oldCommitId
+     * @param newCommitId
+     * @param methodChanged
+     */
+    public void put(String applicationName, String oldCommitId, String newCommitId, Map<String, List<MethodReference>> methodChanged) {
+        if (oldCommitId == null || newCommitId == null) {
+            return;
+        }
+        String key = key(oldCommitId, newCommitId);
+        memoryCache.put(applicationName, new CacheEntry(key, methodChanged));
+        if (!isEnabled()) {
+            return;
+        }
+        Path dir = Paths.get(config.getChangedMethodCacheDir(), applicationName);
+        try {
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(key + SUFFIX + ".tmp");
+            Files.write(tmp, JSON.toJSONString(methodChanged).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, dir.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            File[] stale = dir.toFile().listFiles(file -> !file.getName().equals(key + SUFFIX));
+            if (stale != null) {
+                for (File file : stale) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("改动方法缓存无法写入: {} {}", dir, e.getMessage());
+        }
+    }
+
+    private static String key(String oldCommitId, String newCommitId) {
+        return oldCommitId + "_" + newCommitId;
+    }
+
+    private static class CacheEntry {
+
+        private final String key;
+
+        private final Map<String, List<MethodReference>> methodChanged;
+
+        private CacheEntry(String key, Map<String, List<MethodReference>> methodChanged) {
+            this.key = key;
+            this.methodChanged = methodChanged;
+        }
+
+    }
+
+}
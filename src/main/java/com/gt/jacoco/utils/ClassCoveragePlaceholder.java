@@ -0,0 +1,173 @@
+package com.gt.jacoco.utils;
+
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.CounterImpl;
+import org.jacoco.core.internal.analysis.MethodCoverageImpl;
+import org.jacoco.core.internal.instr.InstrSupport;
+import org.objectweb.asm.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 没有运行时数据、也没有改动的 class 的占位覆盖率数据，
+ * 只用 ASM 顺序读取一遍字节码，按行统计指令数和分支数，全部计为未覆盖，
+ * 不做 jacoco 的探针插入、控制流分析和过滤器处理，因此指令数只是近似值，
+ * 这些 class 在重构报告时会被标记为未改动，只需要保留方法和行的结构
+ */
+public class ClassCoveragePlaceholder {
+
+    private static final String LAMBDA_PREFIX = "lambda$";
+
+    private ClassCoveragePlaceholder() {
+    }
+
+    /**
+     * 生成一个 class 的占位覆盖率数据
+     *
+     * @param classBytes
+     * @param classId    CRC64.classId(classBytes)
+     * @return 与 Analyzer 一样跳过 module-info 和合成类，跳过时返回 null
+     */
+    public static IClassCoverage create(byte[] classBytes, long classId) {
+        ClassReader reader = InstrSupport.classReaderFor(classBytes);
+        if ((reader.getAccess() & (Opcodes.ACC_MODULE | Opcodes.ACC_SYNTHETIC)) != 0) {
+            return null;
+        }
+        ClassCoverageImpl classCoverage = new ClassCoverageImpl(reader.getClassName(), classId, false);
+        reader.accept(new ClassVisitor(InstrSupport.ASM_API_VERSION) {
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                classCoverage.setSignature(signature);
+                classCoverage.setSuperName(superName);
+                classCoverage.setInterfaces(interfaces);
+            }
+
+            @Override
+            public void visitSource(String source, String debug) {
+                classCoverage.setSourceFileName(source);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if ((access & Opcodes.ACC_SYNTHETIC) != 0 && !name.startsWith(LAMBDA_PREFIX)) {
+                    return null;
+                }
+                return new PlaceholderMethodVisitor(classCoverage, new MethodCoverageImpl(name, descriptor, signature));
+            }
+
+        }, ClassReader.SKIP_FRAMES);
+        return classCoverage;
+    }
+
+    private static class PlaceholderMethodVisitor extends MethodVisitor {
+
+        private final ClassCoverageImpl classCoverage;
+
+        private final MethodCoverageImpl methodCoverage;
+
+        private int line = ISourceNode.UNKNOWN_LINE;
+
+        private PlaceholderMethodVisitor(ClassCoverageImpl classCoverage, MethodCoverageImpl methodCoverage) {
+            super(InstrSupport.ASM_API_VERSION);
+            this.classCoverage = classCoverage;
+            this.methodCoverage = methodCoverage;
+        }
+
+        private void instruction(int branches) {
+            methodCoverage.increment(CounterImpl.COUNTER_1_0, CounterImpl.getInstance(branches, 0), line);
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            this.line = line;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            instruction(opcode == Opcodes.GOTO || opcode == Opcodes.JSR ? 0 : 2);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            instruction(distinctTargets(dflt, labels));
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            instruction(distinctTargets(dflt, labels));
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            instruction(0);
+        }
+
+        @Override
+        public void visitEnd() {
+            methodCoverage.incrementMethodCounter();
+            if (methodCoverage.containsCode()) {
+                classCoverage.addMethod(methodCoverage);
+            }
+        }
+
+        private static int distinctTargets(Label dflt, Label[] labels) {
+            Set<Label> targets = new HashSet<>();
+            targets.add(dflt);
+            for (Label label : labels) {
+                targets.add(label);
+            }
+            return targets.size();
+        }
+
+    }
+
+}
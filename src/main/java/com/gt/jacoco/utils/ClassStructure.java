@@ -0,0 +1,427 @@
+package com.gt.jacoco.utils;
+
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.Instruction;
+import org.jacoco.core.internal.analysis.MethodCoverageImpl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个 class 与运行时数据无关的分析结果：每个方法的指令行号、jacoco 构建指令图时按顺序执行的连边和探针操作，
+ * 以及过滤器给出的忽略、合并和分支替换。
+ * 同一个 class id 的结构永远不变，每个收集周期只需要把新的探针数组重放到结构上，
+ * 得到的覆盖率数据与 jacoco 的 Analyzer 完全一致
+ */
+public class ClassStructure {
+
+    /**
+     * 指令之间的连边：顺序执行或跳转，a.addBranch(b, branch)
+     */
+    static final int OP_EDGE = 0;
+
+    /**
+     * 探针分支：a.addBranch(probes[b], branch)
+     */
+    static final int OP_PROBE = 1;
+
+    /**
+     * ops 中每个操作占用的 int 数：类型、a、b、branch
+     */
+    static final int OP_SIZE = 4;
+
+    /**
+     * 读取时数组长度的上限，一个方法的字节码不超过 64KB，正常的结构远小于这个值
+     */
+    private static final int MAX_ARRAY_LENGTH = 1 << 20;
+
+    private final String name;
+
+    private final String signature;
+
+    private final String superName;
+
+    private final String[] interfaces;
+
+    private final String sourceFileName;
+
+    private final List<MethodStructure> methods;
+
+    /**
+     * 所有方法中最大的探针编号加一
+     */
+    private final int probeCount;
+
+    ClassStructure(String name, String signature, String superName, String[] interfaces, String sourceFileName, List<MethodStructure> methods) {
+        this.name = name;
+        this.signature = signature;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.sourceFileName = sourceFileName;
+        this.methods = methods;
+        int probeCount = 0;
+        for (MethodStructure method : methods) {
+            probeCount = Math.max(probeCount, method.probeCount());
+        }
+        this.probeCount = probeCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 结构是否属于这个 class 并且能容纳运行时数据的探针数组，不满足时调用方改用 Analyzer 分析
+     *
+     * @param className     正在分析的 class 的内部类名
+     * @param executionData 为 null 时只比较类名
+     * @return
+     */
+    public boolean matches(String className, ExecutionData executionData) {
+        return name.equals(className) && (executionData == null || probeCount <= executionData.getProbes().length);
+    }
+
+    /**
+     * 用运行时数据生成覆盖率数据，与 Analyzer 一样没有运行时数据时全部为未覆盖，
+     * 运行时数据中只有同名但 id 不同的 class 时标记为不匹配
+     *
+     * @param classId
+     * @param executionDataStore
+     * @return
+     */
+    public IClassCoverage apply(long classId, ExecutionDataStore executionDataStore) {
+        ExecutionData data = executionDataStore.get(classId);
+        boolean[] probes = data == null ? null : data.getProbes();
+        boolean noMatch = data == null && executionDataStore.contains(name);
+        ClassCoverageImpl classCoverage = new ClassCoverageImpl(name, classId, noMatch);
+        classCoverage.setSignature(signature);
+        classCoverage.setSuperName(superName);
+        classCoverage.setInterfaces(interfaces);
+        classCoverage.setSourceFileName(sourceFileName);
+        for (MethodStructure method : methods) {
+            MethodCoverageImpl methodCoverage = method.apply(probes);
+            if (methodCoverage.containsCode()) {
+                classCoverage.addMethod(methodCoverage);
+            }
+        }
+        return classCoverage;
+    }
+
+    /**
+     * 估算占用的内存字节数
+     *
+     * @return
+     */
+    public long weight() {
+        long weight = 128;
+        for (MethodStructure method : methods) {
+            weight += method.weight();
+        }
+        return weight;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeUTF(name);
+        writeNullable(out, signature);
+        writeNullable(out, superName);
+        out.writeInt(interfaces == null ? -1 : interfaces.length);
+        if (interfaces != null) {
+            for (String anInterface : interfaces) {
+                out.writeUTF(anInterface);
+            }
+        }
+        writeNullable(out, sourceFileName);
+        out.writeInt(methods.size());
+        for (MethodStructure method : methods) {
+            method.write(out);
+        }
+    }
+
+    public static ClassStructure read(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        String signature = readNullable(in);
+        String superName = readNullable(in);
+        int interfaceCount = readLength(in, true);
+        String[] interfaces = interfaceCount < 0 ? null : new String[interfaceCount];
+        for (int idx = 0; idx < interfaceCount; idx++) {
+            interfaces[idx] = in.readUTF();
+        }
+        String sourceFileName = readNullable(in);
+        int methodCount = readLength(in, false);
+        List<MethodStructure> methods = new ArrayList<>(methodCount);
+        for (int idx = 0; idx < methodCount; idx++) {
+            methods.add(MethodStructure.read(in));
+        }
+        return new ClassStructure(name, signature, superName, interfaces, sourceFileName, Collections.unmodifiableList(methods));
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * 读取数组长度，文件内容损坏时抛出异常而不是按错误的长度分配内存
+     *
+     * @param in
+     * @param nullable 是否允许 -1 表示 null
+     * @return
+     */
+    private static int readLength(DataInputStream in, boolean nullable) throws IOException {
+        int length = in.readInt();
+        if (length < (nullable ? -1 : 0) || length > MAX_ARRAY_LENGTH) {
+            throw new IOException("数组长度不合法: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * 检查数组中的编号都在 [0, bound) 之内
+     *
+     * @param values
+     * @param bound
+     */
+    private static void checkIndexes(int[] values, int bound) throws IOException {
+        for (int value : values) {
+            if (value < 0 || value >= bound) {
+                throw new IOException("指令编号不合法: " + value);
+            }
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[readLength(in, false)];
+        for (int idx = 0; idx < values.length; idx++) {
+            values[idx] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * 一个方法的结构，指令用在方法中出现的顺序编号
+     */
+    static class MethodStructure {
+
+        private final String name;
+
+        private final String desc;
+
+        private final String signature;
+
+        /**
+         * 每条指令的行号
+         */
+        private final int[] lines;
+
+        /**
+         * 构建指令图的操作，每 OP_SIZE 个 int 为一个操作
+         */
+        private final int[] ops;
+
+        /**
+         * 过滤器忽略的指令
+         */
+        private final int[] ignored;
+
+        /**
+         * 过滤器合并的指令，每两个 int 为一对：被合并的指令、合并到的指令
+         */
+        private final int[] merged;
+
+        /**
+         * 过滤器替换分支的指令
+         */
+        private final int[] replacedSources;
+
+        /**
+         * 与 replacedSources 对应的新分支目标
+         */
+        private final int[][] replacedTargets;
+
+        MethodStructure(String name, String desc, String signature, int[] lines, int[] ops, int[] ignored, int[] merged,
+                        int[] replacedSources, int[][] replacedTargets) {
+            this.name = name;
+            this.desc = desc;
+            this.signature = signature;
+            this.lines = lines;
+            this.ops = ops;
+            this.ignored = ignored;
+            this.merged = merged;
+            this.replacedSources = replacedSources;
+            this.replacedTargets = replacedTargets;
+        }
+
+        /**
+         * 按 jacoco 的 InstructionsBuilder 和 MethodCoverageCalculator 的顺序重放结构
+         *
+         * @param probes 为 null 时全部为未覆盖
+         * @return
+         */
+        MethodCoverageImpl apply(boolean[] probes) {
+            Instruction[] instructions = new Instruction[lines.length];
+            for (int idx = 0; idx < lines.length; idx++) {
+                instructions[idx] = new Instruction(lines[idx]);
+            }
+            for (int idx = 0; idx < ops.length; idx += OP_SIZE) {
+                if (ops[idx] == OP_EDGE) {
+                    instructions[ops[idx + 1]].addBranch(instructions[ops[idx + 2]], ops[idx + 3]);
+                } else {
+                    instructions[ops[idx + 1]].addBranch(probes != null && probes[ops[idx + 2]], ops[idx + 3]);
+                }
+            }
+            boolean[] skipped = new boolean[lines.length];
+            for (int idx : ignored) {
+                skipped[idx] = true;
+            }
+            applyMerges(instructions, skipped);
+            for (int idx = 0; idx < replacedSources.length; idx++) {
+                List<Instruction> targets = new ArrayList<>(replacedTargets[idx].length);
+                for (int target : replacedTargets[idx]) {
+                    targets.add(instructions[target]);
+                }
+                instructions[replacedSources[idx]] = instructions[replacedSources[idx]].replaceBranches(targets);
+            }
+
+            MethodCoverageImpl methodCoverage = new MethodCoverageImpl(name, desc, signature);
+            int firstLine = ISourceNode.UNKNOWN_LINE;
+            int lastLine = ISourceNode.UNKNOWN_LINE;
+            for (int idx = 0; idx < instructions.length; idx++) {
+                int line = instructions[idx].getLine();
+                if (skipped[idx] || line == ISourceNode.UNKNOWN_LINE) {
+                    continue;
+                }
+                if (firstLine > line || lastLine == ISourceNode.UNKNOWN_LINE) {
+                    firstLine = line;
+                }
+                if (lastLine < line) {
+                    lastLine = line;
+                }
+            }
+            methodCoverage.ensureCapacity(firstLine, lastLine);
+            for (int idx = 0; idx < instructions.length; idx++) {
+                if (!skipped[idx]) {
+                    Instruction instruction = instructions[idx];
+                    methodCoverage.increment(instruction.getInstructionCounter(), instruction.getBranchCounter(), instruction.getLine());
+                }
+            }
+            methodCoverage.incrementMethodCounter();
+            return methodCoverage;
+        }
+
+        private void applyMerges(Instruction[] instructions, boolean[] skipped) {
+            if (merged.length == 0) {
+                return;
+            }
+            int[] mergedInto = new int[instructions.length];
+            Arrays.fill(mergedInto, -1);
+            for (int idx = 0; idx < merged.length; idx += 2) {
+                mergedInto[merged[idx]] = merged[idx + 1];
+            }
+            for (int idx = 0; idx < merged.length; idx += 2) {
+                int representative = representative(mergedInto, merged[idx]);
+                skipped[merged[idx]] = true;
+                instructions[representative] = instructions[representative].merge(instructions[merged[idx]]);
+            }
+            for (int idx = 0; idx < merged.length; idx += 2) {
+                instructions[merged[idx]] = instructions[representative(mergedInto, merged[idx])];
+            }
+        }
+
+        private static int representative(int[] mergedInto, int idx) {
+            while (mergedInto[idx] != -1) {
+                idx = mergedInto[idx];
+            }
+            return idx;
+        }
+
+        /**
+         * 方法中最大的探针编号加一
+         *
+         * @return
+         */
+        int probeCount() {
+            int probeCount = 0;
+            for (int idx = 0; idx < ops.length; idx += OP_SIZE) {
+                if (ops[idx] == OP_PROBE) {
+                    probeCount = Math.max(probeCount, ops[idx + 2] + 1);
+                }
+            }
+            return probeCount;
+        }
+
+        long weight() {
+            long weight = 64 + 4L * (lines.length + ops.length + ignored.length + merged.length + replacedSources.length);
+            for (int[] targets : replacedTargets) {
+                weight += 16 + 4L * targets.length;
+            }
+            return weight + 2L * (name.length() + desc.length() + (signature == null ? 0 : signature.length()));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeUTF(desc);
+            writeNullable(out, signature);
+            writeInts(out, lines);
+            writeInts(out, ops);
+            writeInts(out, ignored);
+            writeInts(out, merged);
+            writeInts(out, replacedSources);
+            for (int[] targets : replacedTargets) {
+                writeInts(out, targets);
+            }
+        }
+
+        static MethodStructure read(DataInputStream in) throws IOException {
+            String name = in.readUTF();
+            String desc = in.readUTF();
+            String signature = readNullable(in);
+            int[] lines = readInts(in);
+            int[] ops = readInts(in);
+            int[] ignored = readInts(in);
+            int[] merged = readInts(in);
+            int[] replacedSources = readInts(in);
+            int[][] replacedTargets = new int[replacedSources.length][];
+            for (int idx = 0; idx < replacedSources.length; idx++) {
+                replacedTargets[idx] = readInts(in);
+                checkIndexes(replacedTargets[idx], lines.length);
+            }
+            if (ops.length % OP_SIZE != 0 || merged.length % 2 != 0) {
+                throw new IOException("方法结构不完整: " + name + desc);
+            }
+            for (int idx = 0; idx < ops.length; idx += OP_SIZE) {
+                if ((ops[idx] != OP_EDGE && ops[idx] != OP_PROBE) || ops[idx + 1] < 0 || ops[idx + 1] >= lines.length
+                        || ops[idx + 2] < 0 || (ops[idx] == OP_EDGE && ops[idx + 2] >= lines.length)) {
+                    throw new IOException("方法结构的操作不合法: " + name + desc);
+                }
+            }
+            checkIndexes(ignored, lines.length);
+            checkIndexes(merged, lines.length);
+            checkIndexes(replacedSources, lines.length);
+            return new MethodStructure(name, desc, signature, lines, ops, ignored, merged, replacedSources, replacedTargets);
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.JaCoCo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按 class id 缓存 class 的分析结构，class id 是 class 文件内容的 CRC64，同一个 id 的结构永远不变，多个应用共用。
+ * 内存中按最近最少使用保存，磁盘上每个 class 保存为一个二进制文件 {classStructureCacheDir}/{class id 前两位}/{class id 其余部分}，
+ * 没有配置 classStructureCacheDir 时不使用
+ */
+@Slf4j
+@Component
+public class ClassStructureCacheUtils {
+
+    /**
+     * 文件格式版本，结构内容变化时修改，旧版本或 jacoco 版本不同的文件视为不存在
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private final LinkedHashMap<Long, ClassStructure> structures = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long bytes;
+
+    @Autowired
+    private Config config;
+
+    public boolean isEnabled() {
+        return config.getClassStructureCacheDir() != null;
+    }
+
+    /**
+     * 获取 class 的结构，内存和磁盘上都没有时读取一遍 class 并写入缓存
+     *
+     * @param classId    CRC64.classId(classBytes)
+     * @param classBytes
+     * @return 结构无法记录时返回 null，由调用方交给 Analyzer 处理
+     */
+    public ClassStructure get(long classId, byte[] classBytes) {
+        ClassStructure structure = getFromMemory(classId);
+        if (structure != null) {
+            return structure;
+        }
+        File file = file(classId);
+        structure = read(file);
+        if (structure == null) {
+            try {
+                structure = ClassStructureRecorder.record(classBytes);
+            } catch (RuntimeException e) {
+                log.debug("class 结构无法记录: {} {}", file.getName(), e.getMessage());
+                return null;
+            }
+            write(file, structure);
+        }
+        putToMemory(classId, structure);
+        return structure;
+    }
+
+    private synchronized ClassStructure getFromMemory(long classId) {
+        return structures.get(classId);
+    }
+
+    private synchronized void putToMemory(long classId, ClassStructure structure) {
+        long maxBytes = config.getClassStructureCacheMaxBytes();
+        long weight = structure.weight();
+        if (weight > maxBytes) {
+            return;
+        }
+        ClassStructure previous = structures.put(classId, structure);
+        if (previous != null) {
+            bytes -= previous.weight();
+        }
+        bytes += weight;
+        Iterator<Map.Entry<Long, ClassStructure>> iterator = structures.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().weight();
+            iterator.remove();
+        }
+    }
+
+    private ClassStructure read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !JaCoCo.VERSION.equals(in.readUTF())) {
+                return null;
+            }
+            return ClassStructure.read(in);
+        } catch (IOException | RuntimeException e) {
+            log.warn("class 结构缓存无法读取: {} {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，并发写入同一个 class 时结果相同
+     *
+     * @param file
+     * @param structure
+     */
+    private void write(File file, ClassStructure structure) {
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(JaCoCo.VERSION);
+                structure.write(out);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("class 结构缓存无法写入: {} {}", file, e.getMessage());
+        }
+    }
+
+    private File file(long classId) {
+        String name = String.format("%016x", classId);
+        return Paths.get(config.getClassStructureCacheDir(), name.substring(0, 2), name.substring(2)).toFile();
+    }
+
+}
@@ -0,0 +1,497 @@
+package com.gt.jacoco.utils;
+
+import org.jacoco.core.internal.analysis.filter.Filters;
+import org.jacoco.core.internal.analysis.filter.IFilter;
+import org.jacoco.core.internal.analysis.filter.IFilterContext;
+import org.jacoco.core.internal.analysis.filter.IFilterOutput;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.IFrame;
+import org.jacoco.core.internal.flow.LabelInfo;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.jacoco.core.internal.instr.InstrSupport;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.*;
+
+/**
+ * 用与 jacoco ClassAnalyzer 相同的探针插入、控制流分析和过滤器读取一遍 class，
+ * 不使用运行时数据，而是把 InstructionsBuilder 对指令执行的操作和 MethodCoverageCalculator 收到的过滤结果按顺序记录下来，
+ * 得到可以缓存并用任意探针数组重放的 ClassStructure
+ */
+class ClassStructureRecorder extends ClassProbesVisitor implements IFilterContext {
+
+    private final IFilter filter = Filters.all();
+
+    private final Set<String> classAnnotations = new HashSet<>();
+
+    private final Set<String> classAttributes = new HashSet<>();
+
+    private final List<ClassStructure.MethodStructure> methods = new ArrayList<>();
+
+    private String name;
+
+    private String signature;
+
+    private String superName;
+
+    private String[] interfaces;
+
+    private String sourceFileName;
+
+    private String sourceDebugExtension;
+
+    private ClassStructureRecorder() {
+    }
+
+    /**
+     * 记录一个 class 的结构，调用方需要先按 Analyzer 的规则跳过 module-info 和合成类
+     *
+     * @param classBytes
+     * @return
+     */
+    static ClassStructure record(byte[] classBytes) {
+        ClassStructureRecorder recorder = new ClassStructureRecorder();
+        ClassReader reader = InstrSupport.classReaderFor(classBytes);
+        reader.accept(new ClassProbesAdapter(recorder, false), 0);
+        return new ClassStructure(recorder.name, recorder.signature, recorder.superName, recorder.interfaces,
+                recorder.sourceFileName, Collections.unmodifiableList(recorder.methods));
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.name = name;
+        this.signature = signature;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        classAnnotations.add(descriptor);
+        return super.visitAnnotation(descriptor, visible);
+    }
+
+    @Override
+    public void visitAttribute(Attribute attribute) {
+        classAttributes.add(attribute.type);
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        this.sourceFileName = source;
+        this.sourceDebugExtension = debug;
+    }
+
+    @Override
+    public MethodProbesVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        InstrSupport.assertNotInstrumented(name, this.name);
+        return new MethodRecorder(name, descriptor, signature);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        InstrSupport.assertNotInstrumented(name, this.name);
+        return super.visitField(access, name, descriptor, signature, value);
+    }
+
+    @Override
+    public void visitTotalProbeCount(int count) {
+    }
+
+    @Override
+    public String getClassName() {
+        return name;
+    }
+
+    @Override
+    public String getSuperClassName() {
+        return superName;
+    }
+
+    @Override
+    public Set<String> getClassAnnotations() {
+        return classAnnotations;
+    }
+
+    @Override
+    public Set<String> getClassAttributes() {
+        return classAttributes;
+    }
+
+    @Override
+    public String getSourceFileName() {
+        return sourceFileName;
+    }
+
+    @Override
+    public String getSourceDebugExtension() {
+        return sourceDebugExtension;
+    }
+
+    /**
+     * 对应 jacoco 的 MethodAnalyzer 和 InstructionsBuilder，指令用编号代替 Instruction 对象
+     */
+    private class MethodRecorder extends MethodProbesVisitor implements IFilterOutput {
+
+        private final String name;
+
+        private final String desc;
+
+        private final String signature;
+
+        private final Map<AbstractInsnNode, Integer> instructions = new IdentityHashMap<>();
+
+        private final IntList lines = new IntList();
+
+        private final IntList ops = new IntList();
+
+        private final Map<Label, Integer> labelInstructions = new IdentityHashMap<>();
+
+        private final List<Label> currentLabel = new ArrayList<>(2);
+
+        private final IntList jumpSources = new IntList();
+
+        private final List<Label> jumpTargets = new ArrayList<>();
+
+        private final IntList jumpBranches = new IntList();
+
+        private final Set<Integer> ignored = new TreeSet<>();
+
+        private final Map<Integer, Integer> merged = new LinkedHashMap<>();
+
+        private final Map<Integer, int[]> replacements = new LinkedHashMap<>();
+
+        private AbstractInsnNode currentNode;
+
+        private int currentLine = -1;
+
+        private int currentInsn = -1;
+
+        private MethodRecorder(String name, String desc, String signature) {
+            this.name = name;
+            this.desc = desc;
+            this.signature = signature;
+        }
+
+        @Override
+        public void accept(MethodNode methodNode, MethodVisitor methodVisitor) {
+            methodVisitor.visitCode();
+            for (TryCatchBlockNode tryCatchBlock : methodNode.tryCatchBlocks) {
+                tryCatchBlock.accept(methodVisitor);
+            }
+            for (AbstractInsnNode node : methodNode.instructions) {
+                currentNode = node;
+                node.accept(methodVisitor);
+            }
+            methodVisitor.visitEnd();
+            for (int idx = 0; idx < jumpSources.size(); idx++) {
+                Integer target = labelInstructions.get(jumpTargets.get(idx));
+                if (jumpSources.get(idx) < 0 || target == null) {
+                    throw new IllegalStateException("无法解析跳转目标: " + ClassStructureRecorder.this.name + "." + name + desc);
+                }
+                edge(jumpSources.get(idx), target, jumpBranches.get(idx));
+            }
+            filter.filter(methodNode, ClassStructureRecorder.this, this);
+            methods.add(toStructure());
+        }
+
+        private ClassStructure.MethodStructure toStructure() {
+            int[] ignoredIndexes = new int[ignored.size()];
+            int idx = 0;
+            for (Integer index : ignored) {
+                ignoredIndexes[idx++] = index;
+            }
+            int[] mergedPairs = new int[merged.size() * 2];
+            idx = 0;
+            for (Map.Entry<Integer, Integer> entry : merged.entrySet()) {
+                mergedPairs[idx++] = entry.getKey();
+                mergedPairs[idx++] = entry.getValue();
+            }
+            int[] replacedSources = new int[replacements.size()];
+            int[][] replacedTargets = new int[replacements.size()][];
+            idx = 0;
+            for (Map.Entry<Integer, int[]> entry : replacements.entrySet()) {
+                replacedSources[idx] = entry.getKey();
+                replacedTargets[idx++] = entry.getValue();
+            }
+            return new ClassStructure.MethodStructure(name, desc, signature, lines.toArray(), ops.toArray(),
+                    ignoredIndexes, mergedPairs, replacedSources, replacedTargets);
+        }
+
+        private void edge(int source, int target, int branch) {
+            ops.add(ClassStructure.OP_EDGE);
+            ops.add(source);
+            ops.add(target);
+            ops.add(branch);
+        }
+
+        private void addInstruction() {
+            int index = lines.size();
+            lines.add(currentLine);
+            for (Label label : currentLabel) {
+                labelInstructions.put(label, index);
+            }
+            currentLabel.clear();
+            if (currentInsn >= 0) {
+                edge(currentInsn, index, 0);
+            }
+            currentInsn = index;
+            instructions.put(currentNode, index);
+        }
+
+        private void addJump(Label target, int branch) {
+            jumpSources.add(currentInsn);
+            jumpTargets.add(target);
+            jumpBranches.add(branch);
+        }
+
+        private void addProbe(int probeId, int branch) {
+            if (currentInsn < 0) {
+                throw new IllegalStateException("探针之前没有指令: " + ClassStructureRecorder.this.name + "." + name + desc);
+            }
+            ops.add(ClassStructure.OP_PROBE);
+            ops.add(currentInsn);
+            ops.add(probeId);
+            ops.add(branch);
+        }
+
+        private void noSuccessor() {
+            currentInsn = -1;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            currentLabel.add(label);
+            if (!LabelInfo.isSuccessor(label)) {
+                noSuccessor();
+            }
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            currentLine = line;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            addInstruction();
+            addJump(label, 1);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            visitSwitchInsn(dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            visitSwitchInsn(dflt, labels);
+        }
+
+        private void visitSwitchInsn(Label dflt, Label[] labels) {
+            addInstruction();
+            LabelInfo.resetDone(labels);
+            int branch = 0;
+            addJump(dflt, branch);
+            LabelInfo.setDone(dflt);
+            for (Label label : labels) {
+                if (!LabelInfo.isDone(label)) {
+                    branch++;
+                    addJump(label, branch);
+                    LabelInfo.setDone(label);
+                }
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            addInstruction();
+        }
+
+        @Override
+        public void visitProbe(int probeId) {
+            addProbe(probeId, 0);
+            noSuccessor();
+        }
+
+        @Override
+        public void visitJumpInsnWithProbe(int opcode, Label label, int probeId, IFrame frame) {
+            addInstruction();
+            addProbe(probeId, 1);
+        }
+
+        @Override
+        public void visitInsnWithProbe(int opcode, int probeId) {
+            addInstruction();
+            addProbe(probeId, 0);
+        }
+
+        @Override
+        public void visitTableSwitchInsnWithProbes(int min, int max, Label dflt, Label[] labels, IFrame frame) {
+            visitSwitchInsnWithProbes(dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsnWithProbes(Label dflt, int[] keys, Label[] labels, IFrame frame) {
+            visitSwitchInsnWithProbes(dflt, labels);
+        }
+
+        private void visitSwitchInsnWithProbes(Label dflt, Label[] labels) {
+            addInstruction();
+            LabelInfo.resetDone(dflt);
+            LabelInfo.resetDone(labels);
+            int branch = 0;
+            visitSwitchTarget(dflt, branch);
+            for (Label label : labels) {
+                branch++;
+                visitSwitchTarget(label, branch);
+            }
+        }
+
+        private void visitSwitchTarget(Label label, int branch) {
+            int probeId = LabelInfo.getProbeId(label);
+            if (!LabelInfo.isDone(label)) {
+                if (probeId == LabelInfo.NO_PROBE) {
+                    addJump(label, branch);
+                } else {
+                    addProbe(probeId, branch);
+                }
+                LabelInfo.setDone(label);
+            }
+        }
+
+        @Override
+        public void ignore(AbstractInsnNode fromInclusive, AbstractInsnNode toInclusive) {
+            for (AbstractInsnNode node = fromInclusive; node != toInclusive; node = node.getNext()) {
+                ignoreNode(node);
+            }
+            ignoreNode(toInclusive);
+        }
+
+        private void ignoreNode(AbstractInsnNode node) {
+            Integer index = instructions.get(node);
+            if (index != null) {
+                ignored.add(index);
+            }
+        }
+
+        @Override
+        public void merge(AbstractInsnNode i1, AbstractInsnNode i2) {
+            int representative1 = representative(indexOf(i1));
+            int representative2 = representative(indexOf(i2));
+            if (representative1 != representative2) {
+                merged.put(representative2, representative1);
+            }
+        }
+
+        private int representative(int index) {
+            Integer next;
+            while ((next = merged.get(index)) != null) {
+                index = next;
+            }
+            return index;
+        }
+
+        @Override
+        public void replaceBranches(AbstractInsnNode source, Set<AbstractInsnNode> newTargets) {
+            int[] targets = new int[newTargets.size()];
+            int idx = 0;
+            for (AbstractInsnNode target : newTargets) {
+                targets[idx++] = indexOf(target);
+            }
+            replacements.put(indexOf(source), targets);
+        }
+
+        private int indexOf(AbstractInsnNode node) {
+            Integer index = instructions.get(node);
+            if (index == null) {
+                throw new IllegalStateException("过滤器引用了未知指令: " + ClassStructureRecorder.this.name + "." + name + desc);
+            }
+            return index;
+        }
+
+    }
+
+    private static class IntList {
+
+        private int[] values = new int[16];
+
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int idx) {
+            return values[idx];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+    }
+
+}
@@ -0,0 +1,419 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 按应用和新分支 commit id 缓存编译输出的 class 文件，
+ * 目录结构为 {compileCacheDir}/{applicationName}/{commitId}/{模块相对路径}/target/classes，
+ * 缓存来自收集器上的编译或 CI 上传的构建产物，总大小超过 compileCacheMaxBytes 时按最近使用时间淘汰，
+ * 收集周期正在使用的缓存在 release 之前不会被淘汰，没有配置 compileCacheDir 时不使用缓存
+ */
+@Slf4j
+@Component
+public class CompileCacheUtils {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * 构建产物中存放应用自身 class 文件的目录，分别对应 spring boot 的 jar 和 war，其余目录下的依赖不参与分析
+     */
+    private static final String[] ARTIFACT_CLASSES_DIRS = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+
+    /**
+     * 不属于应用自身的目录，包括 spring boot 可执行 jar 根目录下的启动器
+     */
+    private static final String[] ARTIFACT_SKIPPED_DIRS = {"BOOT-INF/", "WEB-INF/", "META-INF/", "org/springframework/boot/loader/"};
+
+    /**
+     * 正在使用的缓存目录及使用次数
+     */
+    private final Map<Path, Integer> pinned = new HashMap<>();
+
+    /**
+     * 缓存目录被占用时上传的新内容，缓存目录 -> 新内容所在的临时目录，在最后一次 release 时替换
+     */
+    private final Map<Path, Path> pending = new HashMap<>();
+
+    @Autowired
+    private Config config;
+
+    public boolean isEnabled() {
+        return config.getCompileCacheDir() != null;
+    }
+
+    /**
+     * 获取缓存的编译输出目录，不存在或没有启用缓存时返回 null，命中时刷新最近使用时间并占用缓存，使用完后调用 release
+     *
+     * @param applicationName
+     * @param commitId
+     * @return
+     */
+    public synchronized File get(String applicationName, String commitId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        File entry = Paths.get(config.getCompileCacheDir(), applicationName, commitId).toFile();
+        if (!entry.isDirectory()) {
+            return null;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        pin(entry.toPath());
+        return entry;
+    }
+
+    /**
+     * 释放 get 或 put 占用的缓存，不是缓存目录时不做处理，
+     * 最后一次释放时如果有占用期间上传的新内容，用新内容替换缓存目录
+     *
+     * @param entry
+     */
+    public void release(File entry) {
+        Path staged = null;
+        synchronized (this) {
+            Path key = key(entry.toPath());
+            if (pinned.computeIfPresent(key, (path, count) -> count > 1 ? count - 1 : null) == null) {
+                Path tmp = pending.remove(key);
+                if (tmp != null) {
+                    try {
+                        staged = swap(tmp, key);
+                    } catch (IOException e) {
+                        log.warn("替换编译缓存失败: {}", key, e);
+                        staged = tmp;
+                    }
+                }
+            }
+        }
+        if (staged != null) {
+            try {
+                deleteRecursive(staged);
+            } catch (IOException e) {
+                log.warn("删除旧的编译缓存失败: {}", staged, e);
+            }
+        }
+    }
+
+    private synchronized void pin(Path entry) {
+        pinned.merge(key(entry), 1, Integer::sum);
+    }
+
+    private synchronized boolean isPinned(Path entry) {
+        return pinned.containsKey(key(entry));
+    }
+
+    private static Path key(Path entry) {
+        return entry.toAbsolutePath().normalize();
+    }
+
+    /**
+     * 把项目下所有 target/classes 目录复制到缓存中并占用缓存，然后按磁盘上限淘汰旧的缓存，使用完后调用 release，
+     * 只在启用缓存时调用
+     *
+     * @param applicationName
+     * @param commitId
+     * @param projectDir
+     * @return 缓存的编译输出目录
+     */
+    public File put(String applicationName, String commitId, String projectDir) throws IOException {
+        Path entry = Paths.get(config.getCompileCacheDir(), applicationName, commitId);
+        Files.createDirectories(entry.getParent());
+        Path tmp = Files.createTempDirectory(entry.getParent(), commitId + TMP_SUFFIX);
+        Path root = Paths.get(projectDir);
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (dir.getFileName() != null && ".git".equals(dir.getFileName().toString())) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (isClassesDir(dir)) {
+                        copyRecursive(dir, tmp.resolve(root.relativize(dir).toString()));
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            replace(tmp, entry, true);
+        } catch (IOException e) {
+            deleteRecursive(tmp);
+            throw e;
+        }
+        evict(entry);
+        return entry.toFile();
+    }
+
+    /**
+     * 把上传的构建产物边读边解压到缓存中，只保留应用自身的 class 文件，
+     * 普通 jar 取根目录下的 class，spring boot 的 jar 和 war 取 BOOT-INF/classes 和 WEB-INF/classes，
+     * 上传的字节数和解压出的字节数都不能超过 compileCacheMaxBytes，
+     * 每次上传解压到单独的临时目录，同一个 commit 已有的缓存会被替换，缓存正在使用时等到释放后再替换，然后按磁盘上限淘汰旧的缓存
+     *
+     * @param applicationName
+     * @param commitId
+     * @param artifact        jar 或 war 的内容
+     * @return 缓存的编译输出目录
+     */
+    public File putArtifact(String applicationName, String commitId, InputStream artifact) throws IOException {
+        if (!isEnabled()) {
+            throw new IOException("没有配置 compileCacheDir，无法保存构建产物");
+        }
+        Path entry = Paths.get(config.getCompileCacheDir(), applicationName, commitId);
+        Files.createDirectories(entry.getParent());
+        Path tmp = Files.createTempDirectory(entry.getParent(), commitId + TMP_SUFFIX);
+        Path classes = tmp.resolve("target").resolve("classes").normalize();
+        long maxBytes = config.getCompileCacheMaxBytes();
+        int classCount = 0;
+        long unpackedBytes = 0;
+        try (ZipInputStream zip = new ZipInputStream(new LimitedInputStream(artifact, maxBytes))) {
+            Files.createDirectories(classes);
+            byte[] buffer = new byte[8192];
+            ZipEntry zipEntry;
+            while ((zipEntry = zip.getNextEntry()) != null) {
+                String name = artifactClassPath(zipEntry);
+                if (name == null) {
+                    continue;
+                }
+                Path dest = classes.resolve(name).normalize();
+                if (!dest.startsWith(classes)) {
+                    throw new IOException("构建产物中的路径不合法: " + zipEntry.getName());
+                }
+                Files.createDirectories(dest.getParent());
+                try (OutputStream out = Files.newOutputStream(dest)) {
+                    int length;
+                    while ((length = zip.read(buffer)) != -1) {
+                        unpackedBytes += length;
+                        if (unpackedBytes > maxBytes) {
+                            throw new IOException("构建产物解压后超过大小上限: " + maxBytes);
+                        }
+                        out.write(buffer, 0, length);
+                    }
+                }
+                classCount++;
+            }
+            if (classCount == 0) {
+                throw new IOException("构建产物中没有 class 文件");
+            }
+            replace(tmp, entry, false);
+        } catch (IOException e) {
+            deleteRecursive(tmp);
+            throw e;
+        }
+        log.info("保存上传的构建产物: {} {} class 文件数 {}", applicationName, commitId, classCount);
+        evict(entry);
+        return entry.toFile();
+    }
+
+    /**
+     * 用临时目录替换缓存目录，缓存目录正被收集周期占用时不替换，新内容留在临时目录中等到最后一次 release 时再替换，
+     * 占用期间多次上传时只保留最后一次的内容
+     *
+     * @param tmp   新的缓存内容
+     * @param entry
+     * @param pin   替换后是否占用缓存，与替换在同一个锁内完成，不会被自己的占用推迟
+     */
+    private void replace(Path tmp, Path entry, boolean pin) throws IOException {
+        Path staged;
+        synchronized (this) {
+            Path key = key(entry);
+            if (pinned.containsKey(key)) {
+                staged = pending.put(key, tmp);
+                log.info("编译缓存正在使用，释放后再替换: {}", entry);
+            } else {
+                staged = swap(tmp, key);
+            }
+            if (pin) {
+                pin(entry);
+            }
+        }
+        if (staged != null) {
+            deleteRecursive(staged);
+        }
+    }
+
+    /**
+     * 旧的缓存先改名移到临时目录中，再把新的目录改名为缓存目录，调用方持有锁并在锁外删除返回的目录
+     *
+     * @param tmp
+     * @param entry
+     * @return 存放旧缓存的临时目录
+     */
+    private Path swap(Path tmp, Path entry) throws IOException {
+        Path staged = Files.createTempDirectory(entry.getParent(), entry.getFileName() + TMP_SUFFIX);
+        if (Files.exists(entry)) {
+            Files.move(entry, staged.resolve("previous"), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+        return staged;
+    }
+
+    /**
+     * 构建产物中的条目在 classes 目录下的相对路径
+     *
+     * @param zipEntry
+     * @return 不是应用自身的 class 文件时返回 null
+     */
+    private static String artifactClassPath(ZipEntry zipEntry) {
+        String name = zipEntry.getName();
+        if (zipEntry.isDirectory() || !name.endsWith(CLASS_SUFFIX)) {
+            return null;
+        }
+        for (String dir : ARTIFACT_CLASSES_DIRS) {
+            if (name.startsWith(dir)) {
+                return name.substring(dir.length());
+            }
+        }
+        for (String dir : ARTIFACT_SKIPPED_DIRS) {
+            if (name.startsWith(dir)) {
+                return null;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * 按最近使用时间从旧到新删除缓存，直到总大小不超过上限，刚写入的缓存和正在使用的缓存不会被删除
+     *
+     * @param keep
+     */
+    private synchronized void evict(Path keep) throws IOException {
+        File[] applications = new File(config.getCompileCacheDir()).listFiles(File::isDirectory);
+        if (applications == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>();
+        for (File application : applications) {
+            File[] commits = application.listFiles(file -> file.isDirectory() && !file.getName().contains(TMP_SUFFIX));
+            if (commits != null) {
+                for (File commit : commits) {
+                    entries.add(commit);
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(File::lastModified));
+        long[] sizes = new long[entries.size()];
+        long total = 0;
+        for (int idx = 0; idx < entries.size(); idx++) {
+            sizes[idx] = sizeOf(entries.get(idx).toPath());
+            total += sizes[idx];
+        }
+        for (int idx = 0; idx < entries.size() && total > config.getCompileCacheMaxBytes(); idx++) {
+            Path path = entries.get(idx).toPath();
+            if (path.equals(keep) || isPinned(path)) {
+                continue;
+            }
+            log.info("淘汰编译缓存: {}", path);
+            deleteRecursive(path);
+            total -= sizes[idx];
+        }
+    }
+
+    private static boolean isClassesDir(Path dir) {
+        Path parent = dir.getParent();
+        return dir.getFileName() != null && "classes".equals(dir.getFileName().toString())
+                && parent != null && parent.getFileName() != null && "target".equals(parent.getFileName().toString());
+    }
+
+    private static void copyRecursive(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(path, dest, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            return paths.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteRecursive(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            List<Path> all = new ArrayList<>();
+            paths.forEach(all::add);
+            for (int idx = all.size() - 1; idx >= 0; idx--) {
+                Files.deleteIfExists(all.get(idx));
+            }
+        }
+    }
+
+    /**
+     * 读取超过上限时抛出异常的输入流
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int length = super.read(b, off, len);
+            if (length > 0) {
+                count(length);
+            }
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long length = super.skip(n);
+            count(length);
+            return length;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long length) throws IOException {
+            remaining -= length;
+            if (remaining < 0) {
+                throw new IOException("构建产物超过大小上限");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,331 @@
+package com.gt.jacoco.utils;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.DataKey;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.nodeTypes.NodeWithTypeParameters;
+import com.github.javaparser.ast.type.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 根据源码文件的 import、package、内部类和 java.lang 把参数和返回值类型解析为 JVM 描述符，
+ * 不使用 SymbolSolver，也不依赖异常做流程控制。
+ * 一个实例对应一次两条分支的对比，项目自己的类型来自仓库中的源码文件路径，
+ * 其他类型通过 ClassLoader.getResource 判断是否存在，查询结果按仓库缓存。
+ * 收集器的 ClassLoader 中没有应用的依赖包，按需 import 的依赖包中的类型无法确认是否存在
+ */
+@Slf4j
+public class DescriptorResolver {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    /**
+     * jdk 的包，收集器的 ClassLoader 中能查到其中所有的类型
+     */
+    private static final String JDK_PACKAGE = "java/";
+
+    private final Set<String> projectTypes;
+
+    /**
+     * 仓库中源码文件所在的包，eg: com/leo/
+     */
+    private final Set<String> projectPackages = new HashSet<>();
+
+    /**
+     * ClassLoader 中类型是否存在的查询结果
+     */
+    private final Map<String, Boolean> classpathTypes;
+
+    /**
+     * 同一个源码文件中 简单类名 -> 内部类名 的解析结果，保存在 CompilationUnit 自身的节点数据上，
+     * 按对象本身而不是 Node.equals 的结构比较查找，随 CompilationUnit 一起回收
+     */
+    private final DataKey<Map<String, String>> resolvedNames = new DataKey<Map<String, String>>() {
+    };
+
+    /**
+     * @param projectTypes 仓库中源码文件对应的内部类名，eg: com/leo/TestController
+     */
+    public DescriptorResolver(Set<String> projectTypes) {
+        this(projectTypes, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param projectTypes   仓库中源码文件对应的内部类名，eg: com/leo/TestController
+     * @param classpathTypes 同一个仓库多次对比共用的 ClassLoader 查询结果，需要支持并发访问
+     */
+    public DescriptorResolver(Set<String> projectTypes, Map<String, Boolean> classpathTypes) {
+        this.projectTypes = projectTypes;
+        this.classpathTypes = classpathTypes;
+        for (String projectType : projectTypes) {
+            projectPackages.add(projectType.substring(0, projectType.lastIndexOf('/') + 1));
+        }
+    }
+
+    /**
+     * 获取方法声明（方法名跟完整的方法描述符），与 jacoco 报告中 method 节点的 name + desc 一致
+     * eg: saySomethingToWorld(Ljava/lang/String;I[J)V
+     *
+     * @param methodDeclaration
+     * @return
+     */
+    public String getMethodDefinitionName(MethodDeclaration methodDeclaration) {
+        StringBuilder expression = new StringBuilder(methodDeclaration.getNameAsString()).append('(');
+        for (Parameter parameter : methodDeclaration.getParameters()) {
+            if (parameter.isVarArgs()) {
+                expression.append('[');
+            }
+            appendDescriptor(expression, parameter.getType(), methodDeclaration);
+        }
+        expression.append(')');
+        if (methodDeclaration.getType().isVoidType()) {
+            expression.append('V');
+        } else {
+            appendDescriptor(expression, methodDeclaration.getType(), methodDeclaration);
+        }
+        return expression.toString();
+    }
+
+    private void appendDescriptor(StringBuilder expression, Type type, Node context) {
+        for (int level = 0; level < type.getArrayLevel(); level++) {
+            expression.append('[');
+        }
+        Type elementType = type.getElementType();
+        if (elementType instanceof PrimitiveType) {
+            expression.append(primitiveDescriptor(((PrimitiveType) elementType).getType()));
+        } else if (elementType instanceof ClassOrInterfaceType) {
+            expression.append('L').append(resolveClassType((ClassOrInterfaceType) elementType, context)).append(';');
+        } else {
+            expression.append('L').append(OBJECT).append(';');
+        }
+    }
+
+    /**
+     * 解析类类型的内部类名，类型参数按擦除后的上界处理
+     *
+     * @param type
+     * @param context
+     * @return
+     */
+    private String resolveClassType(ClassOrInterfaceType type, Node context) {
+        if (type.getScope().isPresent()) {
+            List<String> names = new ArrayList<>();
+            ClassOrInterfaceType current = type;
+            while (current != null) {
+                names.add(0, current.getNameAsString());
+                current = current.getScope().orElse(null);
+            }
+            String first = names.get(0);
+            if (!Character.isUpperCase(first.charAt(0))) {
+                return qualifiedToInternal(String.join(".", names));
+            }
+            StringBuilder internalName = new StringBuilder(resolveSimpleName(first, context));
+            for (int idx = 1; idx < names.size(); idx++) {
+                internalName.append('$').append(names.get(idx));
+            }
+            return internalName.toString();
+        }
+        String name = type.getNameAsString();
+        TypeParameter typeParameter = findTypeParameter(name, context);
+        if (typeParameter != null) {
+            return typeParameter.getTypeBound().isEmpty() ? OBJECT : resolveClassType(typeParameter.getTypeBound().get(0), typeParameter);
+        }
+        return resolveSimpleName(name, context);
+    }
+
+    /**
+     * 查找作用域内同名的类型参数
+     *
+     * @param name
+     * @param context
+     * @return 不是类型参数时返回 null
+     */
+    private static TypeParameter findTypeParameter(String name, Node context) {
+        Node node = context;
+        while (node != null) {
+            if (node instanceof NodeWithTypeParameters) {
+                for (TypeParameter typeParameter : ((NodeWithTypeParameters<?>) node).getTypeParameters()) {
+                    if (typeParameter.getNameAsString().equals(name)) {
+                        return typeParameter;
+                    }
+                }
+            }
+            node = node.getParentNode().orElse(null);
+        }
+        return null;
+    }
+
+    /**
+     * 按 外部类及其内部类 -> 文件中的其他类型 -> 单类型 import -> 同包 -> 按需 import -> java.lang 的顺序解析简单类名，
+     * 都找不到时如果有无法确认的按需 import，取其中的第一个，否则按同包处理
+     *
+     * @param name
+     * @param context
+     * @return
+     */
+    private String resolveSimpleName(String name, Node context) {
+        Node node = context;
+        while (node != null) {
+            if (node instanceof TypeDeclaration) {
+                TypeDeclaration<?> typeDeclaration = (TypeDeclaration<?>) node;
+                if (typeDeclaration.getNameAsString().equals(name)) {
+                    return internalName(typeDeclaration);
+                }
+                for (Object member : typeDeclaration.getMembers()) {
+                    if (member instanceof TypeDeclaration && ((TypeDeclaration<?>) member).getNameAsString().equals(name)) {
+                        return internalName((TypeDeclaration<?>) member);
+                    }
+                }
+            }
+            if (node instanceof CompilationUnit) {
+                CompilationUnit compilationUnit = (CompilationUnit) node;
+                if (!compilationUnit.containsData(resolvedNames)) {
+                    compilationUnit.setData(resolvedNames, new HashMap<>());
+                }
+                return compilationUnit.getData(resolvedNames)
+                        .computeIfAbsent(name, simpleName -> resolveInCompilationUnit(simpleName, compilationUnit));
+            }
+            node = node.getParentNode().orElse(null);
+        }
+        return name;
+    }
+
+    private String resolveInCompilationUnit(String name, CompilationUnit compilationUnit) {
+        for (TypeDeclaration<?> typeDeclaration : compilationUnit.getTypes()) {
+            if (typeDeclaration.getNameAsString().equals(name)) {
+                return internalName(typeDeclaration);
+            }
+        }
+        List<String> onDemandImports = new ArrayList<>();
+        for (ImportDeclaration importDeclaration : compilationUnit.getImports()) {
+            if (importDeclaration.isStatic()) {
+                continue;
+            }
+            if (importDeclaration.isAsterisk()) {
+                onDemandImports.add(importDeclaration.getNameAsString());
+            } else if (importDeclaration.getName().getIdentifier().equals(name)) {
+                return qualifiedToInternal(importDeclaration.getNameAsString());
+            }
+        }
+        String packagePrefix = compilationUnit.getPackageDeclaration()
+                .map(packageDeclaration -> packageDeclaration.getNameAsString().replace('.', '/') + "/")
+                .orElse("");
+        if (exists(packagePrefix + name)) {
+            return packagePrefix + name;
+        }
+        List<String> unknownCandidates = new ArrayList<>();
+        for (String onDemandImport : onDemandImports) {
+            String candidate = qualifiedToInternal(onDemandImport + "." + name);
+            if (exists(candidate)) {
+                return candidate;
+            }
+            if (!isKnownPackage(candidate)) {
+                unknownCandidates.add(candidate);
+            }
+        }
+        if (exists("java/lang/" + name)) {
+            return "java/lang/" + name;
+        }
+        if (unknownCandidates.isEmpty()) {
+            return packagePrefix + name;
+        }
+        if (unknownCandidates.size() > 1) {
+            log.warn("无法确定类型 {} 来自哪个按需 import, 按 {} 处理, 候选: {}", name, unknownCandidates.get(0), unknownCandidates);
+        }
+        return unknownCandidates.get(0);
+    }
+
+    /**
+     * 类型所在的包是否是 jdk 或仓库中的包，这些包中不存在的类型可以确定不存在
+     *
+     * @param internalName
+     * @return
+     */
+    private boolean isKnownPackage(String internalName) {
+        int packageEnd = internalName.lastIndexOf('/') + 1;
+        return internalName.startsWith(JDK_PACKAGE) || projectPackages.contains(internalName.substring(0, packageEnd));
+    }
+
+    private boolean exists(String internalName) {
+        if (projectTypes.contains(internalName)) {
+            return true;
+        }
+        return classpathTypes.computeIfAbsent(internalName,
+                name -> DescriptorResolver.class.getClassLoader().getResource(name + ".class") != null);
+    }
+
+    /**
+     * 类型声明的内部类名，eg: com/leo/TestController$InnerClassHere
+     *
+     * @param typeDeclaration
+     * @return
+     */
+    private static String internalName(TypeDeclaration<?> typeDeclaration) {
+        StringBuilder internalName = new StringBuilder(typeDeclaration.getNameAsString());
+        Node node = typeDeclaration.getParentNode().orElse(null);
+        while (node != null) {
+            if (node instanceof TypeDeclaration) {
+                internalName.insert(0, '$').insert(0, ((TypeDeclaration<?>) node).getNameAsString());
+            } else if (node instanceof CompilationUnit) {
+                Optional<String> packageName = ((CompilationUnit) node).getPackageDeclaration().map(packageDeclaration -> packageDeclaration.getNameAsString());
+                if (packageName.isPresent()) {
+                    internalName.insert(0, '/').insert(0, packageName.get().replace('.', '/'));
+                }
+            }
+            node = node.getParentNode().orElse(null);
+        }
+        return internalName.toString();
+    }
+
+    /**
+     * 全限定名转内部类名，首字母大写的第一段之后的部分按内部类处理
+     * eg: java.util.Map.Entry --> java/util/Map$Entry
+     *
+     * @param qualifiedName
+     * @return
+     */
+    private static String qualifiedToInternal(String qualifiedName) {
+        String[] segments = qualifiedName.split("\\.");
+        StringBuilder internalName = new StringBuilder();
+        boolean inType = false;
+        for (int idx = 0; idx < segments.length; idx++) {
+            if (idx > 0) {
+                internalName.append(inType ? '$' : '/');
+            }
+            internalName.append(segments[idx]);
+            if (!segments[idx].isEmpty() && Character.isUpperCase(segments[idx].charAt(0))) {
+                inType = true;
+            }
+        }
+        return internalName.toString();
+    }
+
+    private static char primitiveDescriptor(PrimitiveType.Primitive primitive) {
+        switch (primitive) {
+            case BOOLEAN:
+                return 'Z';
+            case CHAR:
+                return 'C';
+            case BYTE:
+                return 'B';
+            case SHORT:
+                return 'S';
+            case INT:
+                return 'I';
+            case LONG:
+                return 'J';
+            case FLOAT:
+                return 'F';
+            default:
+                return 'D';
+        }
+    }
+
+}
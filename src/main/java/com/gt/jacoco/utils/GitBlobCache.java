@@ -0,0 +1,51 @@
+package com.gt.jacoco.utils;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按 blob ObjectId 缓存文件内容，同一个 blob 的内容永远不变，不需要失效，
+ * 缓存内容的总字节数超过上限时按最近最少使用淘汰
+ */
+public class GitBlobCache {
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<ObjectId, String> contents = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long bytes;
+
+    public GitBlobCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized String get(AnyObjectId blobId) {
+        return contents.get(blobId);
+    }
+
+    public synchronized void put(AnyObjectId blobId, String content) {
+        long weight = weight(content);
+        if (weight > maxBytes) {
+            return;
+        }
+        String previous = contents.put(blobId.copy(), content);
+        if (previous != null) {
+            bytes -= weight(previous);
+        }
+        bytes += weight;
+        Iterator<Map.Entry<ObjectId, String>> iterator = contents.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= weight(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    private static long weight(String content) {
+        return 2L * content.length();
+    }
+
+}
@@ -3,37 +3,97 @@ package com.gt.jacoco.utils;
 import com.gt.jacoco.config.Config;
 import com.gt.jacoco.entity.RegisterInfo;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.*;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 public class GitUtils {
 
-    private static final String REF_PREFIX = "refs/heads/";
+    private static final String REMOTE_REF_PREFIX = "refs/remotes/origin/";
+
+    private static final String WORKTREE_SUFFIX = "-worktrees";
+
+    private static final String SOURCE_ROOT = "src/main/java/";
+
+    private static final DiffAlgorithm DIFF_ALGORITHM = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+
+    /**
+     * 工作区中记录当前导出的 commit id 的文件
+     */
+    private static final String WORKTREE_MARKER = ".worktree-commit";
 
     @Autowired
     private Config config;
 
+    /**
+     * 每个应用的 git 仓库只打开一次，所有收集周期共用
+     */
+    private final Map<String, Repository> repositories = new ConcurrentHashMap<>();
+
+    private GitBlobCache blobCache;
+
+    @PostConstruct
+    public void init() {
+        blobCache = new GitBlobCache(config.getBlobCacheMaxBytes());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        repositories.values().forEach(Repository::close);
+        repositories.clear();
+    }
+
+    /**
+     * 获取共用的仓库句柄，调用方不要关闭
+     *
+     * @param absoluteProjectPath
+     * @return
+     */
+    public Repository getRepository(String absoluteProjectPath) throws IOException {
+        try {
+            return repositories.computeIfAbsent(absoluteProjectPath, path -> {
+                try {
+                    return new FileRepositoryBuilder().findGitDir(new File(path)).setMustExist(true).build();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
     /**
      * 获取指定git工程目录下，指定分支的，指定文件内容
      *
@@ -43,18 +103,14 @@ public class GitUtils {
      * @return
      */
     public String getFile(String absoluteProjectPath, String filePath, String branch) {
-        try (Git git = Git.open(new File(absoluteProjectPath))) {
-            Repository repository = git.getRepository();
-            Ref head = repository.exactRef(REF_PREFIX + branch);
-            try (RevWalk walk = new RevWalk(repository)) {
+        try {
+            Repository repository = getRepository(absoluteProjectPath);
+            Ref head = repository.exactRef(REMOTE_REF_PREFIX + branch);
+            try (ObjectReader objectReader = repository.newObjectReader();
+                 RevWalk walk = new RevWalk(objectReader)) {
                 RevCommit commit = walk.parseCommit(head.getObjectId());
-                try (TreeWalk treeWalk = TreeWalk.forPath(git.getRepository(), filePath, commit.getTree())) {
-                    ObjectId blobId = treeWalk.getObjectId(0);
-                    try (ObjectReader objectReader = repository.newObjectReader()) {
-                        ObjectLoader objectLoader = objectReader.open(blobId);
-                        byte[] bytes = objectLoader.getBytes();
-                        return new String(bytes, StandardCharsets.UTF_8);
-                    }
+                try (TreeWalk treeWalk = TreeWalk.forPath(objectReader, filePath, commit.getTree())) {
+                    return readBlob(objectReader, treeWalk.getObjectId(0));
                 }
             }
         } catch (Exception e) {
@@ -63,6 +119,79 @@ public class GitUtils {
         return "";
     }
 
+    /**
+     * 批量读取 blob 的内容，所有 blob 共用一个 ObjectReader，已经读过的 blob 从缓存返回
+     *
+     * @param absoluteProjectPath
+     * @param blobIds
+     * @return Map<blob id, 文件内容>
+     */
+    public Map<ObjectId, String> getBlobContents(String absoluteProjectPath, Collection<ObjectId> blobIds) throws IOException {
+        Map<ObjectId, String> contents = new HashMap<>();
+        if (blobIds.isEmpty()) {
+            return contents;
+        }
+        Repository repository = getRepository(absoluteProjectPath);
+        try (ObjectReader objectReader = repository.newObjectReader()) {
+            for (ObjectId blobId : blobIds) {
+                contents.put(blobId, readBlob(objectReader, blobId));
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * 计算同一个文件新旧两个 blob 之间的编辑区间，行号从 0 开始，按新版本的行号升序排列
+     *
+     * @param absoluteProjectPath
+     * @param oldId
+     * @param newId
+     * @return blob id 无法解析或读取失败时返回 null
+     */
+    public EditList getEdits(String absoluteProjectPath, AbbreviatedObjectId oldId, AbbreviatedObjectId newId) {
+        try (ObjectReader objectReader = getRepository(absoluteProjectPath).newObjectReader()) {
+            ObjectId oldBlobId = resolve(objectReader, oldId);
+            ObjectId newBlobId = resolve(objectReader, newId);
+            if (oldBlobId == null || newBlobId == null) {
+                return null;
+            }
+            RawText oldText = new RawText(readBlob(objectReader, oldBlobId).getBytes(StandardCharsets.UTF_8));
+            RawText newText = new RawText(readBlob(objectReader, newBlobId).getBytes(StandardCharsets.UTF_8));
+            return DIFF_ALGORITHM.diff(RawTextComparator.DEFAULT, oldText, newText);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 把 DiffEntry 中的 blob id 解析为完整的 ObjectId
+     *
+     * @param objectReader
+     * @param abbreviatedId
+     * @return 空 id 或无法唯一确定时返回 null
+     */
+    public static ObjectId resolve(ObjectReader objectReader, AbbreviatedObjectId abbreviatedId) throws IOException {
+        if (abbreviatedId == null) {
+            return null;
+        }
+        if (abbreviatedId.isComplete()) {
+            ObjectId objectId = abbreviatedId.toObjectId();
+            return ObjectId.zeroId().equals(objectId) ? null : objectId;
+        }
+        Collection<ObjectId> candidates = objectReader.resolve(abbreviatedId);
+        return candidates.size() == 1 ? candidates.iterator().next() : null;
+    }
+
+    private String readBlob(ObjectReader objectReader, ObjectId blobId) throws IOException {
+        String content = blobCache.get(blobId);
+        if (content == null) {
+            content = new String(objectReader.open(blobId, Constants.OBJ_BLOB).getBytes(), StandardCharsets.UTF_8);
+            blobCache.put(blobId, content);
+        }
+        return content;
+    }
+
     public void cloneRepository(RegisterInfo registerInfo) throws GitAPIException {
         Git.cloneRepository()
                 .setURI(registerInfo.getGitRepositoryUrl())
@@ -71,36 +200,141 @@ public class GitUtils {
                 .call();
     }
 
-    public void checkoutBranch(RegisterInfo registerInfo, String branch) throws GitAPIException {
-        try (Git git = Git.open(new File(registerInfo.getGitDir()))) {
-            List<Ref> branches = git.branchList().call();
-            boolean exist = false;
-            for (Ref ref : branches) {
-                if (ref.getName().equals(REF_PREFIX + branch)) {
-                    exist = true;
+    /**
+     * 拉取远程仓库的最新提交，不修改工作区，仓库不存在时先克隆
+     *
+     * @param registerInfo
+     */
+    public void fetch(RegisterInfo registerInfo) throws GitAPIException, IOException {
+        if (!new File(registerInfo.getGitDir()).exists()) {
+            cloneRepository(registerInfo);
+            return;
+        }
+        try (Git git = new Git(getRepository(registerInfo.getGitDir()))) {
+            git.fetch().setCredentialsProvider(new UsernamePasswordCredentialsProvider(config.getGitAccount(), config.getGitPassword())).call();
+        }
+    }
+
+    /**
+     * 获取远程分支最新的 commit id
+     *
+     * @param absoluteProjectPath
+     * @param branch
+     * @return 分支不存在时返回 null
+     */
+    public String getRemoteHead(String absoluteProjectPath, String branch) throws IOException {
+        Ref ref = getRepository(absoluteProjectPath).exactRef(REMOTE_REF_PREFIX + branch);
+        return ref == null ? null : ref.getObjectId().name();
+    }
+
+    /**
+     * 获取分支专用工作区目录
+     *
+     * @param registerInfo
+     * @param branch
+     * @return
+     */
+    public File getWorktree(RegisterInfo registerInfo, String branch) {
+        return Paths.get(config.getGitDir(), registerInfo.getApplicationName() + WORKTREE_SUFFIX, branch).toFile();
+    }
+
+    /**
+     * 把远程分支最新的提交导出到分支专用工作区，只写入与上次导出的提交之间有差异的文件，
+     * 分支没有移动时不做任何 IO，不会切换仓库的当前分支
+     *
+     * @param registerInfo
+     * @param branch
+     * @return 工作区目录
+     */
+    public File updateWorktree(RegisterInfo registerInfo, String branch) throws IOException {
+        File worktree = getWorktree(registerInfo, branch);
+        File marker = new File(worktree, WORKTREE_MARKER);
+        String exported = marker.exists() ? new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim() : null;
+        Repository repository = getRepository(registerInfo.getGitDir());
+        Ref ref = repository.exactRef(REMOTE_REF_PREFIX + branch);
+        if (ref == null) {
+            throw new IOException("远程分支不存在: " + branch);
+        }
+        ObjectId head = ref.getObjectId();
+        if (head.name().equals(exported)) {
+            return worktree;
+        }
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk walk = new RevWalk(reader);
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            RevTree oldTree = null;
+            if (exported != null) {
+                try {
+                    oldTree = walk.parseCommit(ObjectId.fromString(exported)).getTree();
+                } catch (IllegalArgumentException | MissingObjectException e) {
+                    log.warn("工作区记录的提交不存在, 重新导出: {} {}", worktree, exported);
                 }
             }
-            if (exist) {
-                git.checkout().setName(branch).call();
+            if (oldTree == null) {
+                treeWalk.addTree(new EmptyTreeIterator());
             } else {
-                git.checkout().setCreateBranch(true).setName(branch).setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.SET_UPSTREAM).setStartPoint("origin/" + branch).call();
+                treeWalk.addTree(oldTree);
+            }
+            treeWalk.addTree(walk.parseCommit(head).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            while (treeWalk.next()) {
+                File file = new File(worktree, treeWalk.getPathString());
+                FileMode mode = treeWalk.getFileMode(1);
+                if (mode == FileMode.MISSING || mode == FileMode.GITLINK) {
+                    Files.deleteIfExists(file.toPath());
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                try (OutputStream out = new FileOutputStream(file)) {
+                    reader.open(treeWalk.getObjectId(1)).copyTo(out);
+                }
+                if (mode == FileMode.EXECUTABLE_FILE) {
+                    file.setExecutable(true);
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        worktree.mkdirs();
+        Files.write(marker.toPath(), head.name().getBytes(StandardCharsets.UTF_8));
+        log.info("更新工作区: {} -> {}", worktree, head.name());
+        return worktree;
     }
 
-    public void pull(RegisterInfo registerInfo, String branch) throws GitAPIException {
-        try (Git git = Git.open(new File(registerInfo.getGitDir()))) {
-            git.checkout().setName(branch).call();
-            git.pull().setCredentialsProvider(new UsernamePasswordCredentialsProvider(config.getGitAccount(), config.getGitPassword())).call();
+    /**
+     * 列出远程分支中所有 java 源码文件对应的内部类名，源码目录按 src/main/java 识别
+     * eg: module/src/main/java/com/leo/TestController.java --> com/leo/TestController
+     *
+     * @param absoluteProjectPath
+     * @param branch
+     * @return 分支不存在时返回空集合
+     */
+    public Set<String> listSourceTypes(String absoluteProjectPath, String branch) {
+        Set<String> sourceTypes = new HashSet<>();
+        try {
+            Repository repository = getRepository(absoluteProjectPath);
+            Ref head = repository.exactRef(REMOTE_REF_PREFIX + branch);
+            if (head == null) {
+                return sourceTypes;
+            }
+            try (ObjectReader objectReader = repository.newObjectReader();
+                 RevWalk walk = new RevWalk(objectReader);
+                 TreeWalk treeWalk = new TreeWalk(objectReader)) {
+                treeWalk.addTree(walk.parseCommit(head.getObjectId()).getTree());
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(PathSuffixFilter.create(".java"));
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+                    int sourceRoot = path.indexOf(SOURCE_ROOT);
+                    String relativePath = sourceRoot >= 0 ? path.substring(sourceRoot + SOURCE_ROOT.length()) : path;
+                    sourceTypes.add(relativePath.substring(0, relativePath.length() - ".java".length()));
+                }
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error(e.getMessage());
         }
+        return sourceTypes;
     }
 
-
-
     /**
      * 获取指定git工程目录下两条分支的差异文件
      *
@@ -110,10 +344,10 @@ public class GitUtils {
      * @return
      */
     public List<DiffEntry> findDifferenceFiles(String absoluteProjectPath, String oldBranch, String newBranch) {
-        try (Git git = Git.open(new File(absoluteProjectPath))) {
+        try (Git git = new Git(getRepository(absoluteProjectPath))) {
             Repository repository = git.getRepository();
-            AbstractTreeIterator oldTreeIterator = prepareTreeParser(repository, REF_PREFIX + oldBranch);
-            AbstractTreeIterator newTreeIterator = prepareTreeParser(repository, REF_PREFIX + newBranch);
+            AbstractTreeIterator oldTreeIterator = prepareTreeParser(repository, REMOTE_REF_PREFIX + oldBranch);
+            AbstractTreeIterator newTreeIterator = prepareTreeParser(repository, REMOTE_REF_PREFIX + newBranch);
             return git.diff().setShowNameAndStatusOnly(true).setOldTree(oldTreeIterator).setNewTree(newTreeIterator).call()
                     .stream()
                     .filter(item -> item.getNewPath().endsWith(".java"))
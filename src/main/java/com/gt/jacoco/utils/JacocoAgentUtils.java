@@ -2,26 +2,47 @@ package com.gt.jacoco.utils;
 
 
 import com.gt.jacoco.config.Config;
+import com.gt.jacoco.entity.AgentEndpoint;
 import com.gt.jacoco.entity.RegisterInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.jacoco.core.analysis.Analyzer;
 import org.jacoco.core.analysis.CoverageBuilder;
 import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.ExecutionDataWriter;
-import org.jacoco.core.runtime.RemoteControlReader;
-import org.jacoco.core.runtime.RemoteControlWriter;
+import org.jacoco.core.data.SessionInfoStore;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.instr.InstrSupport;
 import org.jacoco.core.tools.ExecFileLoader;
 import org.jacoco.report.DirectorySourceFileLocator;
 import org.jacoco.report.IReportVisitor;
 import org.jacoco.report.xml.XMLFormatter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.*;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Component
@@ -33,50 +54,368 @@ public class JacocoAgentUtils {
     @Autowired
     private GitUtils gitUtils;
 
-    public void fetchData(RegisterInfo registerInfo) throws IOException {
-        final FileOutputStream localFile = new FileOutputStream(Paths.get(config.getExecDataDir(), registerInfo.getApplicationName() + ".exec").toString());
-        final ExecutionDataWriter localWriter = new ExecutionDataWriter(localFile);
-        final Socket socket = new Socket(InetAddress.getByName(registerInfo.getHost()), registerInfo.getPort());
-        final RemoteControlWriter writer = new RemoteControlWriter(socket.getOutputStream());
-        final RemoteControlReader reader = new RemoteControlReader(socket.getInputStream());
-        reader.setSessionInfoVisitor(localWriter);
-        reader.setExecutionDataVisitor(localWriter);
-        writer.visitDumpCommand(true, false);
-        if (!reader.read()) {
-            throw new IOException("Socket closed unexpectedly.");
+    @Autowired
+    private CompileCacheUtils compileCacheUtils;
+
+    @Autowired
+    private ClassStructureCacheUtils classStructureCacheUtils;
+
+    @Autowired
+    private AgentDumpClient agentDumpClient;
+
+    /**
+     * 并行分析 class 文件的线程池，analysisParallelism 不大于 1 时按顺序分析
+     */
+    private ForkJoinPool forkJoinPool;
+
+    @PostConstruct
+    public void init() {
+        if (config.getAnalysisParallelism() > 1) {
+            forkJoinPool = new ForkJoinPool(config.getAnalysisParallelism());
         }
-        socket.close();
-        localFile.close();
     }
 
-    public String generateXmlReport(RegisterInfo registerInfo) throws IOException, GitAPIException, InterruptedException {
-        File applicationDir = new File(config.getGitDir(), registerInfo.getApplicationName());
-        if (!applicationDir.exists()) {
-            gitUtils.cloneRepository(registerInfo);
+    @PreDestroy
+    public void destroy() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdownNow();
+        }
+    }
+
+    /**
+     * 从应用每个实例的 agent 并发 dump 运行时数据，在内存中合并为一份并保存到 exec 文件，
+     * 同一个 class 在各实例上的探针按位或合并，部分实例无法访问或超时时只使用其余实例的数据
+     *
+     * @param registerInfo
+     * @return 本次 dump 合并得到的运行时数据
+     */
+    public ExecutionDataStore fetchData(RegisterInfo registerInfo) throws IOException {
+        List<AgentEndpoint> endpoints = agentEndpoints(registerInfo);
+        List<AgentDump> agentDumps = new ArrayList<>(endpoints.size());
+        List<CompletableFuture<Void>> futures = new ArrayList<>(endpoints.size());
+        for (AgentEndpoint endpoint : endpoints) {
+            AgentDump agentDump = new AgentDump();
+            agentDumps.add(agentDump);
+            futures.add(agentDumpClient.dump(endpoint, agentDump.sessionInfoStore, agentDump.executionDataStore));
+        }
+        final SessionInfoStore sessionInfoStore = new SessionInfoStore();
+        final ExecutionDataStore executionDataStore = new ExecutionDataStore();
+        IOException failure = null;
+        int dumped = 0;
+        for (int idx = 0; idx < futures.size(); idx++) {
+            AgentEndpoint endpoint = endpoints.get(idx);
+            try {
+                futures.get(idx).get();
+                AgentDump agentDump = agentDumps.get(idx);
+                agentDump.sessionInfoStore.accept(sessionInfoStore);
+                agentDump.executionDataStore.accept(executionDataStore);
+                dumped++;
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("dump 运行时数据被中断");
+            } catch (ExecutionException e) {
+                log.warn("无法从实例 dump 运行时数据: {} {}:{} {}", registerInfo.getApplicationName(), endpoint.getHost(), endpoint.getPort(), e.getCause().getMessage());
+                failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        if (dumped == 0) {
+            throw failure;
+        }
+        try (FileOutputStream localFile = new FileOutputStream(Paths.get(config.getExecDataDir(), registerInfo.getApplicationName() + ".exec").toString())) {
+            final ExecutionDataWriter localWriter = new ExecutionDataWriter(localFile);
+            sessionInfoStore.accept(localWriter);
+            executionDataStore.accept(localWriter);
+        }
+        return executionDataStore;
+    }
+
+    /**
+     * 应用的所有 agent 地址，没有配置 agentEndpoints 时只有 host 和 port 一个
+     *
+     * @param registerInfo
+     * @return
+     */
+    private static List<AgentEndpoint> agentEndpoints(RegisterInfo registerInfo) {
+        if (registerInfo.getAgentEndpoints() != null && !registerInfo.getAgentEndpoints().isEmpty()) {
+            return registerInfo.getAgentEndpoints();
+        }
+        AgentEndpoint endpoint = new AgentEndpoint();
+        endpoint.setHost(registerInfo.getHost());
+        endpoint.setPort(registerInfo.getPort());
+        return Collections.singletonList(endpoint);
+    }
+
+    /**
+     * 计算探针数据的摘要，只包含 class id、类名和探针数组，不包含会话时间，
+     * 探针没有变化时两次 dump 的摘要相同
+     *
+     * @param executionDataStore
+     * @return
+     */
+    public String probeDigest(ExecutionDataStore executionDataStore) {
+        List<ExecutionData> contents = new ArrayList<>(executionDataStore.getContents());
+        contents.sort(Comparator.comparingLong(ExecutionData::getId));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            ByteBuffer buffer = ByteBuffer.allocate(12);
+            for (ExecutionData data : contents) {
+                boolean[] probes = data.getProbes();
+                buffer.clear();
+                buffer.putLong(data.getId()).putInt(probes.length);
+                digest.update(buffer.array());
+                digest.update(data.getName().getBytes(StandardCharsets.UTF_8));
+                byte[] bits = new byte[(probes.length + 7) / 8];
+                for (int idx = 0; idx < probes.length; idx++) {
+                    if (probes[idx]) {
+                        bits[idx / 8] |= 1 << (idx % 8);
+                    }
+                }
+                digest.update(bits);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        gitUtils.checkoutBranch(registerInfo, registerInfo.getOldBranch());
-        gitUtils.pull(registerInfo, registerInfo.getOldBranch());
-        gitUtils.checkoutBranch(registerInfo, registerInfo.getNewBranch());
-        gitUtils.pull(registerInfo, registerInfo.getNewBranch());
+    }
+
+    public String generateXmlReport(RegisterInfo registerInfo) throws IOException, GitAPIException, InterruptedException {
+        prepareSource(registerInfo);
+        ExecFileLoader execFileLoader = loadExecutionData(registerInfo);
+        return writeXmlReport(registerInfo, execFileLoader, analyze(registerInfo, execFileLoader));
+    }
 
+    /**
+     * 用 XMLFormatter 输出原始的 jacoco 报告
+     *
+     * @param registerInfo
+     * @param execFileLoader
+     * @param bundleCoverage
+     * @return
+     */
+    public String writeXmlReport(RegisterInfo registerInfo, ExecFileLoader execFileLoader, IBundleCoverage bundleCoverage) throws IOException {
+        final XMLFormatter xmlFormatter = new XMLFormatter();
+        final IReportVisitor visitor = xmlFormatter.createVisitor(new FileOutputStream(new File(config.getXmlDataDir(), registerInfo.getApplicationName() + ".xml")));
+        visitor.visitInfo(execFileLoader.getSessionInfoStore().getInfos(), execFileLoader.getExecutionDataStore().getContents());
+        visitor.visitBundle(bundleCoverage, new DirectorySourceFileLocator(new File(gitUtils.getWorktree(registerInfo, registerInfo.getNewBranch()), "src/main/java"), "utf-8", 4));
+        visitor.visitEnd();
+        return Paths.get(config.getXmlDataDir(), registerInfo.getApplicationName() + ".xml").toString();
+    }
+
+    /**
+     * 拉取远程仓库并把新分支最新的提交导出到新分支的工作区，旧分支只从对象库读取，
+     * 每个收集周期都调用，新分支没有移动时工作区的标记文件与最新提交相同，不会重新导出
+     *
+     * @param registerInfo
+     */
+    public void prepareSource(RegisterInfo registerInfo) throws IOException, GitAPIException {
+        gitUtils.fetch(registerInfo);
+        gitUtils.updateWorktree(registerInfo, registerInfo.getNewBranch());
+    }
+
+    /**
+     * 获取新分支当前 commit 的编译输出，commit 没有变化或已经上传了构建产物时直接使用缓存，否则编译一次并写入缓存，
+     * 没有启用编译缓存时每次都编译并直接分析工作区，
+     * 使用缓存时不需要编译，但新分支的工作区仍由 prepareSource 导出，供报告的源码定位和 sonar 使用，
+     * 返回缓存目录时缓存已被占用，分析完成后调用 CompileCacheUtils.release
+     *
+     * @param registerInfo
+     * @return
+     */
+    public File compiledClasses(RegisterInfo registerInfo) throws IOException {
+        String commitId = gitUtils.getRemoteHead(registerInfo.getGitDir(), registerInfo.getNewBranch());
+        if (commitId != null) {
+            File cached = compileCacheUtils.get(registerInfo.getApplicationName(), commitId);
+            if (cached != null) {
+                log.info("使用编译缓存: {} {}", registerInfo.getApplicationName(), commitId);
+                return cached;
+            }
+        }
+        if (Boolean.TRUE.equals(registerInfo.getArtifactOnly())) {
+            throw new FileNotFoundException(String.format("新分支 commit 的构建产物尚未上传: %s %s", registerInfo.getApplicationName(), commitId));
+        }
+        File worktree = gitUtils.getWorktree(registerInfo, registerInfo.getNewBranch());
         Process exec = Runtime.getRuntime().exec(new String[]{
-                "/bin/sh", "-c", String.format("cd %s && mvn --settings %s compile", registerInfo.getGitDir(), config.getMavenSettingsPath())
+                "/bin/sh", "-c", String.format("cd %s && mvn --settings %s compile", worktree, config.getMavenSettingsPath())
         });
         CommonUtils.printShellOutput(exec);
+        if (commitId == null || exec.exitValue() != 0 || !compileCacheUtils.isEnabled()) {
+            return worktree;
+        }
+        return compileCacheUtils.put(registerInfo.getApplicationName(), commitId, worktree.getPath());
+    }
 
+    /**
+     * 加载 fetchData 保存的运行时数据
+     *
+     * @param registerInfo
+     * @return
+     */
+    public ExecFileLoader loadExecutionData(RegisterInfo registerInfo) throws IOException {
         ExecFileLoader execFileLoader = new ExecFileLoader();
         File executionDataFile = new File(config.getExecDataDir(), registerInfo.getApplicationName() + ".exec");
         execFileLoader.load(executionDataFile);
+        return execFileLoader;
+    }
+
+    /**
+     * 用运行时数据分析编译后的 class 文件，得到覆盖率数据
+     *
+     * @param registerInfo
+     * @param execFileLoader
+     * @return
+     */
+    public IBundleCoverage analyze(RegisterInfo registerInfo, ExecFileLoader execFileLoader) throws IOException {
+        return analyze(registerInfo, execFileLoader, null);
+    }
+
+    /**
+     * 用运行时数据分析编译后的 class 文件，得到覆盖率数据，
+     * 开启 targetedAnalysis 时只完整分析有运行时数据的 class 和有改动方法的 class，其余 class 使用占位数据，
+     * 配置了 classStructureCacheDir 时 class 文件的完整分析改为把运行时数据重放到缓存的 class 结构上
+     *
+     * @param registerInfo
+     * @param execFileLoader
+     * @param changedClasses 有改动方法的 class，为 null 时分析全部 class
+     * @return
+     */
+    public IBundleCoverage analyze(RegisterInfo registerInfo, ExecFileLoader execFileLoader, Set<String> changedClasses) throws IOException {
         final CoverageBuilder coverageBuilder = new CoverageBuilder();
-        final Analyzer analyzer = new Analyzer(execFileLoader.getExecutionDataStore(), coverageBuilder);
-        analyzer.analyzeAll(new File(registerInfo.getGitDir()));
-        final IBundleCoverage bundleCoverage = coverageBuilder.getBundle(registerInfo.getApplicationName());
-        final XMLFormatter xmlFormatter = new XMLFormatter();
-        final IReportVisitor visitor = xmlFormatter.createVisitor(new FileOutputStream(new File(config.getXmlDataDir(), registerInfo.getApplicationName() + ".xml")));
-        visitor.visitInfo(execFileLoader.getSessionInfoStore().getInfos(), execFileLoader.getExecutionDataStore().getContents());
-        visitor.visitBundle(bundleCoverage, new DirectorySourceFileLocator(new File(registerInfo.getGitDir(), "src/main/java"), "utf-8", 4));
-        visitor.visitEnd();
-        return Paths.get(config.getXmlDataDir(), registerInfo.getApplicationName() + ".xml").toString();
+        final File classes = compiledClasses(registerInfo);
+        final ExecutionDataStore executionDataStore = execFileLoader.getExecutionDataStore();
+        final Set<String> targetClasses = config.getTargetedAnalysis() ? changedClasses : null;
+        try {
+            if (forkJoinPool == null && targetClasses == null && !classStructureCacheUtils.isEnabled()) {
+                final Analyzer analyzer = new Analyzer(executionDataStore, coverageBuilder);
+                analyzer.analyzeAll(classes);
+            } else {
+                List<File> files = new ArrayList<>();
+                listFiles(classes, files, targetClasses != null);
+                List<IClassCoverage> classCoverages = forkJoinPool == null
+                        ? analyzeFiles(executionDataStore, files, targetClasses)
+                        : analyzeParallel(executionDataStore, files, targetClasses);
+                for (IClassCoverage classCoverage : classCoverages) {
+                    coverageBuilder.visitCoverage(classCoverage);
+                }
+            }
+        } finally {
+            compileCacheUtils.release(classes);
+        }
+        return coverageBuilder.getBundle(registerInfo.getApplicationName());
+    }
+
+    /**
+     * 把按 Analyzer.analyzeAll 遍历顺序列出的文件分成连续的若干段，每段在线程池中用自己的 Analyzer 分析，
+     * 所有线程只读共享的 ExecutionDataStore，结果按原顺序返回，
+     * 交给同一个 CoverageBuilder 后 sourcefile 汇总和重名检查都与单线程分析一致
+     *
+     * @param executionDataStore
+     * @param files
+     * @param targetClasses
+     * @return
+     */
+    private List<IClassCoverage> analyzeParallel(ExecutionDataStore executionDataStore, List<File> files, Set<String> targetClasses) throws IOException {
+        int chunkCount = Math.min(files.size(), config.getAnalysisParallelism() * 4);
+        if (chunkCount < 2) {
+            return analyzeFiles(executionDataStore, files, targetClasses);
+        }
+        List<List<File>> chunks = new ArrayList<>(chunkCount);
+        for (int idx = 0; idx < chunkCount; idx++) {
+            chunks.add(files.subList(idx * files.size() / chunkCount, (idx + 1) * files.size() / chunkCount));
+        }
+        try {
+            List<List<IClassCoverage>> results = forkJoinPool.submit(() -> chunks.parallelStream()
+                    .map(chunk -> analyzeFiles(executionDataStore, chunk, targetClasses))
+                    .collect(Collectors.toList()))
+                    .get();
+            List<IClassCoverage> classCoverages = new ArrayList<>();
+            for (List<IClassCoverage> result : results) {
+                classCoverages.addAll(result);
+            }
+            return classCoverages;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("class 分析被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 分析一组文件
+     *
+     * @param executionDataStore
+     * @param files
+     * @param targetClasses      为 null 时完整分析全部文件，否则只完整分析有运行时数据或在其中的 class 文件，其余生成占位数据
+     * @return
+     */
+    private List<IClassCoverage> analyzeFiles(ExecutionDataStore executionDataStore, List<File> files, Set<String> targetClasses) {
+        List<IClassCoverage> classCoverages = new ArrayList<>();
+        Analyzer analyzer = new Analyzer(executionDataStore, classCoverages::add);
+        boolean structureCache = classStructureCacheUtils.isEnabled();
+        for (File file : files) {
+            try {
+                if (targetClasses == null && !(structureCache && file.getName().endsWith(".class"))) {
+                    analyzer.analyzeAll(file);
+                    continue;
+                }
+                byte[] classBytes = Files.readAllBytes(file.toPath());
+                long classId = CRC64.classId(classBytes);
+                ClassReader reader = InstrSupport.classReaderFor(classBytes);
+                if ((reader.getAccess() & (Opcodes.ACC_MODULE | Opcodes.ACC_SYNTHETIC)) != 0) {
+                    continue;
+                }
+                String className = reader.getClassName();
+                if (targetClasses != null && executionDataStore.get(classId) == null && !executionDataStore.contains(className) && !targetClasses.contains(className)) {
+                    classCoverages.add(ClassCoveragePlaceholder.create(classBytes, classId));
+                    continue;
+                }
+                ClassStructure structure = structureCache ? classStructureCacheUtils.get(classId, classBytes) : null;
+                if (structure != null && structure.matches(className, executionDataStore.get(classId))) {
+                    classCoverages.add(structure.apply(classId, executionDataStore));
+                } else {
+                    analyzer.analyzeClass(classBytes, file.getPath());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return classCoverages;
+    }
+
+    /**
+     * 与 Analyzer.analyzeAll(File) 相同的顺序递归列出目录下的文件
+     *
+     * @param file
+     * @param files
+     * @param classFilesOnly 只列出 .class 文件
+     */
+    private static void listFiles(File file, List<File> files, boolean classFilesOnly) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                listFiles(child, files, classFilesOnly);
+            }
+        } else if (!classFilesOnly || file.getName().endsWith(".class")) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * 一个 agent 的 dump 结果
+     */
+    private static class AgentDump {
+
+        private final SessionInfoStore sessionInfoStore = new SessionInfoStore();
+
+        private final ExecutionDataStore executionDataStore = new ExecutionDataStore();
+
     }
 
-}
\ No newline at end of file
+}
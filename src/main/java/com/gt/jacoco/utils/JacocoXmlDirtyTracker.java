@@ -0,0 +1,111 @@
+package com.gt.jacoco.utils;
+
+import org.dom4j.Element;
+
+import java.util.*;
+
+/**
+ * 记录 refactor/merge 过程中被修改过覆盖数据的 method、class、package 节点，
+ * 重新统计覆盖率时只需要重算这些子树以及它们的祖先节点，没有改动的子树在标记时已经直接算好，不需要记录，
+ * 同时缓存每个节点下的 counter 节点引用，避免重复执行 counter[@type=...] XPath 查询
+ */
+public class JacocoXmlDirtyTracker {
+
+    private final boolean full;
+
+    private final Set<Element> dirtyClasses = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final Set<Element> dirtyPackages = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final Map<Element, JacocoXmlIndex.CounterTable> counterCache = new IdentityHashMap<>();
+
+    private JacocoXmlDirtyTracker(boolean full) {
+        this.full = full;
+    }
+
+    /**
+     * 只重算被修改过的子树
+     *
+     * @return
+     */
+    public static JacocoXmlDirtyTracker incremental() {
+        return new JacocoXmlDirtyTracker(false);
+    }
+
+    /**
+     * 每次都重算整个文档，与原来的 recountCoverage 行为一致
+     *
+     * @return
+     */
+    public static JacocoXmlDirtyTracker full() {
+        return new JacocoXmlDirtyTracker(true);
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * 标记一个 method 节点的 counter 被修改过，它所在的 class 和 package 都需要重算
+     *
+     * @param methodElement
+     */
+    public void markMethod(Element methodElement) {
+        Element classElement = methodElement.getParent();
+        if (classElement != null) {
+            markClass(classElement);
+        }
+    }
+
+    /**
+     * 标记一个 class 节点下的 method 被修改过，class 和它所在的 package 都需要重算
+     *
+     * @param classElement
+     */
+    public void markClass(Element classElement) {
+        if (full) {
+            return;
+        }
+        dirtyClasses.add(classElement);
+        Element packageElement = classElement.getParent();
+        if (packageElement != null) {
+            dirtyPackages.add(packageElement);
+        }
+    }
+
+    /**
+     * 标记一个 package 节点下的 class 的 counter 被修改过，只需要重算 package
+     *
+     * @param packageElement
+     */
+    public void markPackage(Element packageElement) {
+        if (full) {
+            return;
+        }
+        dirtyPackages.add(packageElement);
+    }
+
+    public Set<Element> getDirtyClasses() {
+        return dirtyClasses;
+    }
+
+    public Set<Element> getDirtyPackages() {
+        return dirtyPackages;
+    }
+
+    public void clear() {
+        dirtyClasses.clear();
+        dirtyPackages.clear();
+    }
+
+    /**
+     * 获取节点下的 counter 节点
+     *
+     * @param element
+     * @return
+     */
+    public JacocoXmlIndex.CounterTable counters(Element element) {
+        return counterCache.computeIfAbsent(element, JacocoXmlIndex.CounterTable::new);
+    }
+
+}
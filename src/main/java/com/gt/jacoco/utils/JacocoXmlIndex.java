@@ -0,0 +1,281 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.CoverageCounters;
+import com.gt.jacoco.entity.CoverageLines;
+import com.gt.jacoco.entity.ReportCounters;
+import org.dom4j.Document;
+import org.dom4j.Element;
+
+import java.util.*;
+
+/**
+ * jacoco xml 文档索引
+ * 一次遍历建立 class -> method(name/desc/hash) 的索引，sourcefile 的 line 数组在第一次访问时建立并缓存，
+ * 避免在合并时对整个文档反复执行 XPath 查询
+ */
+public class JacocoXmlIndex {
+
+    private final Map<String, ClassEntry> classes = new LinkedHashMap<>();
+
+    private final Map<Element, Map<String, Element>> sourceFilesByPackage = new HashMap<>();
+
+    private final Map<Element, LineTable> lineTables = new HashMap<>();
+
+    private JacocoXmlIndex() {
+    }
+
+    /**
+     * 为一个 jacoco xml 文档建立索引
+     *
+     * @param document
+     * @return
+     */
+    public static JacocoXmlIndex build(Document document) {
+        JacocoXmlIndex index = new JacocoXmlIndex();
+        Element report = document.getRootElement();
+        for (Element packageElement : report.elements("package")) {
+            Map<String, Element> sourceFiles = new HashMap<>();
+            for (Element sourceFileElement : packageElement.elements("sourcefile")) {
+                sourceFiles.putIfAbsent(sourceFileElement.attributeValue("name"), sourceFileElement);
+            }
+            index.sourceFilesByPackage.put(packageElement, sourceFiles);
+            for (Element classElement : packageElement.elements("class")) {
+                index.classes.putIfAbsent(classElement.attributeValue("name"), new ClassEntry(classElement));
+            }
+        }
+        return index;
+    }
+
+    public Collection<ClassEntry> getClasses() {
+        return classes.values();
+    }
+
+    public ClassEntry getClass(String className) {
+        return classes.get(className);
+    }
+
+    /**
+     * 获取 class 所在 sourcefile 的 line 数组，不存在时返回 null
+     *
+     * @param classEntry
+     * @return
+     */
+    public LineTable getLineTable(ClassEntry classEntry) {
+        Element classElement = classEntry.getElement();
+        Map<String, Element> sourceFiles = sourceFilesByPackage.get(classElement.getParent());
+        if (sourceFiles == null) {
+            return null;
+        }
+        Element sourceFileElement = sourceFiles.get(classElement.attributeValue("sourcefilename"));
+        if (sourceFileElement == null) {
+            return null;
+        }
+        return lineTables.computeIfAbsent(sourceFileElement, LineTable::new);
+    }
+
+    /**
+     * 获取节点下指定类型的 counter 节点
+     *
+     * @param element
+     * @param type
+     * @return
+     */
+    public static Element findCounter(Element element, String type) {
+        for (Element counter : element.elements("counter")) {
+            if (type.equals(counter.attributeValue("type"))) {
+                return counter;
+            }
+        }
+        return null;
+    }
+
+    private static String methodKey(String name, String desc, String hash) {
+        return name + '\n' + desc + '\n' + hash;
+    }
+
+    public static class ClassEntry {
+
+        private final Element element;
+
+        private final List<Element> methods;
+
+        private final Map<String, Element> methodsByKey = new HashMap<>();
+
+        private ClassEntry(Element element) {
+            this.element = element;
+            this.methods = element.elements("method");
+            for (Element method : methods) {
+                String hash = method.attributeValue("hash");
+                if (hash != null) {
+                    methodsByKey.putIfAbsent(methodKey(method.attributeValue("name"), method.attributeValue("desc"), hash), method);
+                }
+            }
+        }
+
+        public Element getElement() {
+            return element;
+        }
+
+        public List<Element> getMethods() {
+            return methods;
+        }
+
+        /**
+         * 按 name/desc/hash 查找方法节点
+         *
+         * @param name
+         * @param desc
+         * @param hash
+         * @return
+         */
+        public Element getMethod(String name, String desc, String hash) {
+            return methodsByKey.get(methodKey(name, desc, hash));
+        }
+
+    }
+
+    /**
+     * 一个 sourcefile 下所有 line 节点的数组形式，每个属性只解析一次，写入时同步更新 xml 属性，
+     * 行号 -> 下标 使用以行号为下标的稠密数组，查找只需要一次数组访问
+     */
+    public static class LineTable implements CoverageLines {
+
+        private final List<Element> elements;
+
+        private final int[] nr;
+
+        /**
+         * 行号 -> line 节点下标，不存在的行为 -1
+         */
+        private final int[] positions;
+
+        private final int[] mi;
+
+        private final int[] ci;
+
+        private final int[] mb;
+
+        private final int[] cb;
+
+        LineTable(Element sourceFileElement) {
+            this.elements = sourceFileElement.elements("line");
+            int size = elements.size();
+            this.nr = new int[size];
+            this.mi = new int[size];
+            this.ci = new int[size];
+            this.mb = new int[size];
+            this.cb = new int[size];
+            for (int idx = 0; idx < size; idx++) {
+                Element line = elements.get(idx);
+                nr[idx] = Integer.parseInt(line.attributeValue("nr"));
+                mi[idx] = Integer.parseInt(line.attributeValue("mi"));
+                ci[idx] = Integer.parseInt(line.attributeValue("ci"));
+                mb[idx] = Integer.parseInt(line.attributeValue("mb"));
+                cb[idx] = Integer.parseInt(line.attributeValue("cb"));
+            }
+            int maxLine = 0;
+            for (int lineNumber : nr) {
+                maxLine = Math.max(maxLine, lineNumber);
+            }
+            this.positions = new int[size == 0 ? 0 : maxLine + 1];
+            Arrays.fill(positions, -1);
+            for (int idx = 0; idx < size; idx++) {
+                if (nr[idx] >= 0 && positions[nr[idx]] < 0) {
+                    positions[nr[idx]] = idx;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return nr.length;
+        }
+
+        @Override
+        public int indexOf(int lineNumber) {
+            return lineNumber >= 0 && lineNumber < positions.length ? positions[lineNumber] : -1;
+        }
+
+        @Override
+        public int nr(int idx) {
+            return nr[idx];
+        }
+
+        @Override
+        public int mi(int idx) {
+            return mi[idx];
+        }
+
+        @Override
+        public int ci(int idx) {
+            return ci[idx];
+        }
+
+        @Override
+        public int mb(int idx) {
+            return mb[idx];
+        }
+
+        @Override
+        public int cb(int idx) {
+            return cb[idx];
+        }
+
+        @Override
+        public void setLine(int idx, int lineMi, int lineCi, int lineMb, int lineCb, byte mark) {
+            Element line = elements.get(idx);
+            mi[idx] = lineMi;
+            ci[idx] = lineCi;
+            mb[idx] = lineMb;
+            cb[idx] = lineCb;
+            line.attribute("mi").setValue(String.valueOf(lineMi));
+            line.attribute("ci").setValue(String.valueOf(lineCi));
+            line.attribute("mb").setValue(String.valueOf(lineMb));
+            line.attribute("cb").setValue(String.valueOf(lineCb));
+            line.addAttribute("mark", mark == MARK_CHANGED ? "changed" : "unchanged");
+        }
+
+    }
+
+    /**
+     * 一个节点下按 ReportCounters.TYPES 顺序排列的 counter 节点，读写都直接访问 xml 属性
+     */
+    public static class CounterTable implements CoverageCounters {
+
+        private final Element[] counters = new Element[ReportCounters.TYPES.length];
+
+        CounterTable(Element element) {
+            for (Element counter : element.elements("counter")) {
+                int type = ReportCounters.typeIndex(counter.attributeValue("type"));
+                if (type >= 0 && counters[type] == null) {
+                    counters[type] = counter;
+                }
+            }
+        }
+
+        @Override
+        public boolean has(int type) {
+            return counters[type] != null;
+        }
+
+        @Override
+        public int getMissed(int type) {
+            return Integer.parseInt(counters[type].attributeValue("missed"));
+        }
+
+        @Override
+        public int getCovered(int type) {
+            return Integer.parseInt(counters[type].attributeValue("covered"));
+        }
+
+        @Override
+        public void update(int type, int missedCount, int coveredCount) {
+            if (has(type)) {
+                counters[type].attribute("missed").setValue(String.valueOf(missedCount));
+                counters[type].attribute("covered").setValue(String.valueOf(coveredCount));
+            }
+        }
+
+    }
+
+}
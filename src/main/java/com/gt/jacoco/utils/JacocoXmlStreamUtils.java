@@ -0,0 +1,428 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.*;
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.analysis.IBundleCoverage;
+import org.jacoco.core.analysis.IPackageCoverage;
+import org.jacoco.core.data.SessionInfo;
+
+import javax.xml.stream.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 流式处理 jacoco xml：用 StAX 逐个 package 读取新生成的报告，在内存中只保留当前 package 的数据，
+ * 完成标记、历史覆盖率合并、覆盖率重新统计后立即写出，避免把整个报告加载成 DOM
+ */
+@Slf4j
+public class JacocoXmlStreamUtils {
+
+    private static final String DOCTYPE = "<!DOCTYPE report PUBLIC \"-//JACOCO//DTD Report 1.1//EN\" \"report.dtd\">";
+
+    private static final XMLInputFactory INPUT_FACTORY;
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        INPUT_FACTORY = XMLInputFactory.newInstance();
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * 重构新生成的 jacoco 报告并合并历史覆盖率，结果覆盖写回 newXmlFile
+     *
+     * @param newXmlFile         本次生成的报告
+     * @param oldXmlFile         上一次处理后的报告，不存在时不合并
+     * @param classMethodChanged
+     * @param incrementalRecount 是否只重算被修改过的节点
+     */
+    public static void refactorAndMerge(String newXmlFile, String oldXmlFile, Map<String, List<MethodReference>> classMethodChanged, boolean incrementalRecount) throws IOException, XMLStreamException {
+        ReportHistory history = null;
+        if (oldXmlFile != null && new File(oldXmlFile).exists()) {
+            history = loadHistory(oldXmlFile, classMethodChanged.keySet());
+        }
+        Path target = Paths.get(newXmlFile);
+        Path temp = Paths.get(newXmlFile + ".tmp");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(newXmlFile));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(temp.toFile()))) {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            try {
+                process(reader, writer, classMethodChanged, history, !incrementalRecount);
+            } finally {
+                reader.close();
+                writer.close();
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 直接用分析得到的覆盖率数据生成增量报告，不经过 XMLFormatter 输出再解析的过程，
+     * 每个 package 转换为报告模型后完成标记、合并、重新统计，最后只输出一次 xml
+     *
+     * @param xmlFile            输出的报告
+     * @param oldXmlFile         上一次处理后的报告，不存在时不合并
+     * @param sessionInfos
+     * @param bundleCoverage
+     * @param classMethodChanged
+     * @param incrementalRecount 是否只重算被修改过的节点
+     */
+    public static void writeIncrementalReport(String xmlFile, String oldXmlFile, Collection<SessionInfo> sessionInfos, IBundleCoverage bundleCoverage
+            , Map<String, List<MethodReference>> classMethodChanged, boolean incrementalRecount) throws IOException, XMLStreamException {
+        ReportHistory history = null;
+        if (oldXmlFile != null && new File(oldXmlFile).exists()) {
+            history = loadHistory(oldXmlFile, classMethodChanged.keySet());
+        }
+        ChangedMethodIndex changedMethodIndex = new ChangedMethodIndex(classMethodChanged);
+        Path temp = Paths.get(xmlFile + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp.toFile()))) {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            try {
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeDTD(DOCTYPE);
+                writer.writeStartElement("report");
+                writer.writeAttribute("name", bundleCoverage.getName());
+                for (SessionInfo sessionInfo : sessionInfos) {
+                    writer.writeEmptyElement("sessioninfo");
+                    writer.writeAttribute("id", sessionInfo.getId());
+                    writer.writeAttribute("start", String.valueOf(sessionInfo.getStartTimeStamp()));
+                    writer.writeAttribute("dump", String.valueOf(sessionInfo.getDumpTimeStamp()));
+                }
+                ReportCounters reportCounters = new ReportCounters();
+                ReportModelUtils.copyCounters(bundleCoverage, reportCounters);
+                int[] missed = new int[ReportCounters.TYPES.length];
+                int[] covered = new int[ReportCounters.TYPES.length];
+                for (IPackageCoverage packageCoverage : bundleCoverage.getPackages()) {
+                    ReportPackage reportPackage = ReportModelUtils.toReportPackage(packageCoverage);
+                    processPackage(writer, reportPackage, changedMethodIndex, history, !incrementalRecount, missed, covered);
+                }
+                for (int type = 0; type < ReportCounters.TYPES.length; type++) {
+                    reportCounters.update(type, missed[type], covered[type]);
+                }
+                writeCounters(writer, reportCounters);
+                writer.writeEndElement();
+                writer.writeEndDocument();
+            } finally {
+                writer.close();
+            }
+        }
+        Files.move(temp, Paths.get(xmlFile), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 从上一次的报告中读取本次有改动的 class 的历史数据
+     *
+     * @param oldXmlFile
+     * @param classNames
+     * @return
+     */
+    public static ReportHistory loadHistory(String oldXmlFile, Set<String> classNames) throws IOException, XMLStreamException {
+        ReportHistory history = new ReportHistory();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(oldXmlFile))) {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                moveToRootElement(reader);
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if ("package".equals(reader.getLocalName())) {
+                        ReportPackage reportPackage = readPackage(reader);
+                        for (ReportClass reportClass : reportPackage.getClasses()) {
+                            if (classNames.contains(reportClass.getName())) {
+                                history.addClass(reportClass, reportPackage.getSourceFile(reportClass.getSourceFileName()));
+                            }
+                        }
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return history;
+    }
+
+    private static void process(XMLStreamReader reader, XMLStreamWriter writer, Map<String, List<MethodReference>> classMethodChanged
+            , ReportHistory history, boolean fullRecount) throws XMLStreamException {
+        ChangedMethodIndex changedMethodIndex = new ChangedMethodIndex(classMethodChanged);
+        moveToRootElement(reader);
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeDTD(DOCTYPE);
+        writer.writeStartElement("report");
+        writer.writeAttribute("name", reader.getAttributeValue(null, "name"));
+        ReportCounters reportCounters = new ReportCounters();
+        int[] missed = new int[ReportCounters.TYPES.length];
+        int[] covered = new int[ReportCounters.TYPES.length];
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "sessioninfo": {
+                    writer.writeEmptyElement("sessioninfo");
+                    writer.writeAttribute("id", reader.getAttributeValue(null, "id"));
+                    writer.writeAttribute("start", reader.getAttributeValue(null, "start"));
+                    writer.writeAttribute("dump", reader.getAttributeValue(null, "dump"));
+                    reader.nextTag();
+                    break;
+                }
+                case "package": {
+                    processPackage(writer, readPackage(reader), changedMethodIndex, history, fullRecount, missed, covered);
+                    break;
+                }
+                case "counter": {
+                    readCounter(reader, reportCounters);
+                    break;
+                }
+                default: {
+                    throw new XMLStreamException("不支持的报告节点: " + reader.getLocalName(), reader.getLocation());
+                }
+            }
+        }
+        for (int type = 0; type < ReportCounters.TYPES.length; type++) {
+            reportCounters.update(type, missed[type], covered[type]);
+        }
+        writeCounters(writer, reportCounters);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+    }
+
+    /**
+     * 对一个 package 执行标记、合并、重新统计并写出，同时把 package 的 counter 累加到报告总数
+     */
+    private static void processPackage(XMLStreamWriter writer, ReportPackage reportPackage, ChangedMethodIndex changedMethodIndex
+            , ReportHistory history, boolean fullRecount, int[] missed, int[] covered) throws XMLStreamException {
+        ReportModelUtils.refactorPackage(reportPackage, changedMethodIndex);
+        if (history != null) {
+            ReportModelUtils.mergePackage(reportPackage, history);
+        }
+        ReportModelUtils.recountPackage(reportPackage, fullRecount);
+        for (int type = 0; type < ReportCounters.TYPES.length; type++) {
+            if (reportPackage.getCounters().has(type)) {
+                missed[type] += reportPackage.getCounters().getMissed(type);
+                covered[type] += reportPackage.getCounters().getCovered(type);
+            }
+        }
+        writePackage(writer, reportPackage);
+    }
+
+    /**
+     * 读取一个 package 节点，调用时 reader 位于 package 开始标签，返回时位于 package 结束标签
+     *
+     * @param reader
+     * @return
+     */
+    static ReportPackage readPackage(XMLStreamReader reader) throws XMLStreamException {
+        ReportPackage reportPackage = new ReportPackage();
+        reportPackage.setName(reader.getAttributeValue(null, "name"));
+        reportPackage.setMark(reader.getAttributeValue(null, "mark"));
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "class": {
+                    reportPackage.getClasses().add(readClass(reader));
+                    break;
+                }
+                case "sourcefile": {
+                    reportPackage.addSourceFile(readSourceFile(reader));
+                    break;
+                }
+                case "counter": {
+                    readCounter(reader, reportPackage.getCounters());
+                    break;
+                }
+                default: {
+                    skipElement(reader);
+                }
+            }
+        }
+        return reportPackage;
+    }
+
+    private static ReportClass readClass(XMLStreamReader reader) throws XMLStreamException {
+        ReportClass reportClass = new ReportClass();
+        reportClass.setName(reader.getAttributeValue(null, "name"));
+        reportClass.setSourceFileName(reader.getAttributeValue(null, "sourcefilename"));
+        reportClass.setMark(reader.getAttributeValue(null, "mark"));
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "method": {
+                    reportClass.getMethods().add(readMethod(reader));
+                    break;
+                }
+                case "counter": {
+                    readCounter(reader, reportClass.getCounters());
+                    break;
+                }
+                default: {
+                    skipElement(reader);
+                }
+            }
+        }
+        return reportClass;
+    }
+
+    private static ReportMethod readMethod(XMLStreamReader reader) throws XMLStreamException {
+        ReportMethod method = new ReportMethod();
+        method.setName(reader.getAttributeValue(null, "name"));
+        method.setDesc(reader.getAttributeValue(null, "desc"));
+        method.setLine(parseInt(reader.getAttributeValue(null, "line")));
+        method.setEndLine(parseInt(reader.getAttributeValue(null, "endLine")));
+        method.setHash(reader.getAttributeValue(null, "hash"));
+        method.setMark(reader.getAttributeValue(null, "mark"));
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if ("counter".equals(reader.getLocalName())) {
+                readCounter(reader, method.getCounters());
+            } else {
+                skipElement(reader);
+            }
+        }
+        return method;
+    }
+
+    private static ReportSourceFile readSourceFile(XMLStreamReader reader) throws XMLStreamException {
+        ReportSourceFile sourceFile = new ReportSourceFile();
+        sourceFile.setName(reader.getAttributeValue(null, "name"));
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "line": {
+                    sourceFile.addLine(Integer.parseInt(reader.getAttributeValue(null, "nr"))
+                            , Integer.parseInt(reader.getAttributeValue(null, "mi"))
+                            , Integer.parseInt(reader.getAttributeValue(null, "ci"))
+                            , Integer.parseInt(reader.getAttributeValue(null, "mb"))
+                            , Integer.parseInt(reader.getAttributeValue(null, "cb"))
+                            , parseMark(reader.getAttributeValue(null, "mark")));
+                    reader.nextTag();
+                    break;
+                }
+                case "counter": {
+                    readCounter(reader, sourceFile.getCounters());
+                    break;
+                }
+                default: {
+                    skipElement(reader);
+                }
+            }
+        }
+        return sourceFile;
+    }
+
+    private static void readCounter(XMLStreamReader reader, ReportCounters counters) throws XMLStreamException {
+        int type = ReportCounters.typeIndex(reader.getAttributeValue(null, "type"));
+        if (type >= 0) {
+            counters.set(type, Integer.parseInt(reader.getAttributeValue(null, "missed")), Integer.parseInt(reader.getAttributeValue(null, "covered")));
+        }
+        reader.nextTag();
+    }
+
+    /**
+     * 跳过 xml 声明与 DOCTYPE，定位到 report 开始标签
+     *
+     * @param reader
+     */
+    static void moveToRootElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            if (!reader.hasNext()) {
+                throw new XMLStreamException("报告为空");
+            }
+        }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static int parseInt(String value) {
+        return value == null ? -1 : Integer.parseInt(value);
+    }
+
+    private static byte parseMark(String mark) {
+        if ("changed".equals(mark)) {
+            return ReportSourceFile.MARK_CHANGED;
+        } else if ("unchanged".equals(mark)) {
+            return ReportSourceFile.MARK_UNCHANGED;
+        }
+        return ReportSourceFile.MARK_NONE;
+    }
+
+    static void writePackage(XMLStreamWriter writer, ReportPackage reportPackage) throws XMLStreamException {
+        writer.writeStartElement("package");
+        writer.writeAttribute("name", reportPackage.getName());
+        writeOptionalAttribute(writer, "mark", reportPackage.getMark());
+        for (ReportClass reportClass : reportPackage.getClasses()) {
+            writer.writeStartElement("class");
+            writer.writeAttribute("name", reportClass.getName());
+            writeOptionalAttribute(writer, "sourcefilename", reportClass.getSourceFileName());
+            writeOptionalAttribute(writer, "mark", reportClass.getMark());
+            for (ReportMethod method : reportClass.getMethods()) {
+                writer.writeStartElement("method");
+                writer.writeAttribute("name", method.getName());
+                writer.writeAttribute("desc", method.getDesc());
+                if (method.getLine() >= 0) {
+                    writer.writeAttribute("line", String.valueOf(method.getLine()));
+                }
+                writeOptionalAttribute(writer, "hash", method.getHash());
+                writeOptionalAttribute(writer, "mark", method.getMark());
+                if (method.getEndLine() >= 0) {
+                    writer.writeAttribute("endLine", String.valueOf(method.getEndLine()));
+                }
+                writeCounters(writer, method.getCounters());
+                writer.writeEndElement();
+            }
+            writeCounters(writer, reportClass.getCounters());
+            writer.writeEndElement();
+        }
+        for (ReportSourceFile sourceFile : reportPackage.getSourceFiles().values()) {
+            writer.writeStartElement("sourcefile");
+            writer.writeAttribute("name", sourceFile.getName());
+            for (int idx = 0; idx < sourceFile.getSize(); idx++) {
+                writer.writeEmptyElement("line");
+                writer.writeAttribute("nr", String.valueOf(sourceFile.getNr()[idx]));
+                writer.writeAttribute("mi", String.valueOf(sourceFile.getMi()[idx]));
+                writer.writeAttribute("ci", String.valueOf(sourceFile.getCi()[idx]));
+                writer.writeAttribute("mb", String.valueOf(sourceFile.getMb()[idx]));
+                writer.writeAttribute("cb", String.valueOf(sourceFile.getCb()[idx]));
+                byte mark = sourceFile.getMarks()[idx];
+                if (mark == ReportSourceFile.MARK_CHANGED) {
+                    writer.writeAttribute("mark", "changed");
+                } else if (mark == ReportSourceFile.MARK_UNCHANGED) {
+                    writer.writeAttribute("mark", "unchanged");
+                }
+            }
+            writeCounters(writer, sourceFile.getCounters());
+            writer.writeEndElement();
+        }
+        writeCounters(writer, reportPackage.getCounters());
+        writer.writeEndElement();
+    }
+
+    static void writeCounters(XMLStreamWriter writer, ReportCounters counters) throws XMLStreamException {
+        for (int type = 0; type < ReportCounters.TYPES.length; type++) {
+            if (counters.has(type)) {
+                writer.writeEmptyElement("counter");
+                writer.writeAttribute("type", ReportCounters.TYPES[type]);
+                writer.writeAttribute("missed", String.valueOf(counters.getMissed(type)));
+                writer.writeAttribute("covered", String.valueOf(counters.getCovered(type)));
+            }
+        }
+    }
+
+    private static void writeOptionalAttribute(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        if (value != null) {
+            writer.writeAttribute(name, value);
+        }
+    }
+
+}
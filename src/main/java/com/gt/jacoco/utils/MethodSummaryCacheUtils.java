@@ -0,0 +1,111 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.config.Config;
+import com.gt.jacoco.entity.MethodReference;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 按 git blob id 缓存源码文件的方法摘要：文件中的类，以及每个方法的描述、方法体指纹和起止行号。
+ * 同一个 blob 的内容永远不变，摘要只需要计算一次，多个应用共用同一个目录。
+ * 每个 blob 保存为一个二进制文件 {methodSummaryCacheDir}/{blob id 前两位}/{blob id 其余部分}，
+ * 没有配置 methodSummaryCacheDir 时不使用
+ */
+@Slf4j
+@Component
+public class MethodSummaryCacheUtils {
+
+    /**
+     * 文件格式版本，摘要内容或指纹算法变化时修改，旧版本的文件视为不存在
+     */
+    private static final int FORMAT_VERSION = 3;
+
+    @Autowired
+    private Config config;
+
+    public boolean isEnabled() {
+        return config.getMethodSummaryCacheDir() != null;
+    }
+
+    /**
+     * 读取 blob 的方法摘要
+     *
+     * @param blobId
+     * @return Map<类名, 方法列表>，不存在、无法读取或没有启用缓存时返回 null
+     */
+    public Map<String, List<MethodReference>> get(AnyObjectId blobId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        File file = file(blobId);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int classCount = in.readInt();
+            Map<String, List<MethodReference>> summary = new LinkedHashMap<>(classCount * 2);
+            for (int classIdx = 0; classIdx < classCount; classIdx++) {
+                String className = in.readUTF().intern();
+                int methodCount = in.readInt();
+                List<MethodReference> methods = new ArrayList<>(methodCount);
+                for (int methodIdx = 0; methodIdx < methodCount; methodIdx++) {
+                    methods.add(new MethodReference(in.readUTF(), in.readLong(), in.readInt(), in.readInt()));
+                }
+                summary.put(className, Collections.unmodifiableList(methods));
+            }
+            return summary;
+        } catch (IOException e) {
+            log.warn("方法摘要缓存无法读取: {} {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 保存 blob 的方法摘要，先写临时文件再改名，并发写入同一个 blob 时结果相同，没有启用缓存时不保存
+     *
+     * @param blobId
+     * @param summary
+     */
+    public void put(AnyObjectId blobId, Map<String, List<MethodReference>> summary) {
+        if (!isEnabled()) {
+            return;
+        }
+        File file = file(blobId);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(summary.size());
+                for (Map.Entry<String, List<MethodReference>> entry : summary.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (MethodReference method : entry.getValue()) {
+                        out.writeUTF(method.getMethodNameWithParams());
+                        out.writeLong(method.getBodyFingerprint());
+                        out.writeInt(method.getBeginLine());
+                        out.writeInt(method.getEndLine());
+                    }
+                }
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("方法摘要缓存无法写入: {} {}", file, e.getMessage());
+        }
+    }
+
+    private File file(AnyObjectId blobId) {
+        String name = blobId.name();
+        return Paths.get(config.getMethodSummaryCacheDir(), name.substring(0, 2), name.substring(2)).toFile();
+    }
+
+}
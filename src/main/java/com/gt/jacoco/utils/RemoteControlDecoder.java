@@ -0,0 +1,157 @@
+package com.gt.jacoco.utils;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.IExecutionDataVisitor;
+import org.jacoco.core.data.ISessionInfoVisitor;
+import org.jacoco.core.data.IncompatibleExecDataVersionException;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.runtime.RemoteControlWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * 增量解码 agent 通过 remote control 协议返回的数据，格式与 RemoteControlReader 相同，
+ * 每次只解码缓冲区中完整的 block，不完整的 block 留在缓冲区中等待更多数据，
+ * 解码出的会话信息和运行时数据直接交给 visitor
+ */
+class RemoteControlDecoder {
+
+    private ISessionInfoVisitor sessionInfoVisitor;
+
+    private IExecutionDataVisitor executionDataVisitor;
+
+    /**
+     * 连接建立时发送的头部和第一次 dump 命令
+     *
+     * @return
+     */
+    static ByteBuffer headerAndDumpCommand() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.put(ExecutionDataWriter.BLOCK_HEADER).putChar(ExecutionDataWriter.MAGIC_NUMBER).putChar(ExecutionDataWriter.FORMAT_VERSION);
+        putDumpCommand(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 复用连接时发送的 dump 命令
+     *
+     * @return
+     */
+    static ByteBuffer dumpCommand() {
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        putDumpCommand(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void putDumpCommand(ByteBuffer buffer) {
+        buffer.put(RemoteControlWriter.BLOCK_CMDDUMP).put((byte) 1).put((byte) 0);
+    }
+
+    /**
+     * 设置本次 dump 的数据接收者，同一个连接的多次 dump 可以使用不同的接收者
+     *
+     * @param sessionInfoVisitor
+     * @param executionDataVisitor
+     */
+    void setVisitors(ISessionInfoVisitor sessionInfoVisitor, IExecutionDataVisitor executionDataVisitor) {
+        this.sessionInfoVisitor = sessionInfoVisitor;
+        this.executionDataVisitor = executionDataVisitor;
+    }
+
+    /**
+     * 解码缓冲区中所有完整的 block，返回时缓冲区的 position 停在第一个未解码的字节
+     *
+     * @param buffer 读模式的缓冲区
+     * @return 收到 dump 命令的确认时返回 true
+     */
+    boolean decode(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            try {
+                byte type = buffer.get();
+                switch (type) {
+                    case ExecutionDataWriter.BLOCK_HEADER:
+                        readHeader(buffer);
+                        break;
+                    case ExecutionDataWriter.BLOCK_SESSIONINFO:
+                        sessionInfoVisitor.visitSessionInfo(new SessionInfo(readUTF(buffer), buffer.getLong(), buffer.getLong()));
+                        break;
+                    case ExecutionDataWriter.BLOCK_EXECUTIONDATA:
+                        executionDataVisitor.visitClassExecution(new ExecutionData(buffer.getLong(), readUTF(buffer), readBooleanArray(buffer)));
+                        break;
+                    case RemoteControlWriter.BLOCK_CMDOK:
+                        return true;
+                    default:
+                        throw new IOException(String.format("Unknown block type %x.", type));
+                }
+            } catch (BufferUnderflowException e) {
+                buffer.position(start);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.getChar() != ExecutionDataWriter.MAGIC_NUMBER) {
+            throw new IOException("Invalid execution data file.");
+        }
+        char version = buffer.getChar();
+        if (version != ExecutionDataWriter.FORMAT_VERSION) {
+            throw new IncompatibleExecDataVersionException(version);
+        }
+    }
+
+    /**
+     * 与 DataInput.readUTF 相同的格式：两字节长度加 modified UTF-8
+     */
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        int length = buffer.getChar();
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length + 2];
+        bytes[0] = (byte) (length >>> 8);
+        bytes[1] = (byte) length;
+        buffer.get(bytes, 2, length);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+    /**
+     * 与 CompactDataInput 相同的变长整数
+     */
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0xFF & buffer.get();
+        if ((value & 0x80) == 0) {
+            return value;
+        }
+        return (value & 0x7F) | (readVarInt(buffer) << 7);
+    }
+
+    /**
+     * 与 CompactDataInput 相同的布尔数组：变长整数的长度，之后每个字节从低位开始保存 8 个值
+     */
+    private static boolean[] readBooleanArray(ByteBuffer buffer) {
+        boolean[] value = new boolean[readVarInt(buffer)];
+        if (buffer.remaining() < (value.length + 7) / 8) {
+            throw new BufferUnderflowException();
+        }
+        int bits = 0;
+        for (int idx = 0; idx < value.length; idx++) {
+            if ((idx % 8) == 0) {
+                bits = buffer.get();
+            }
+            value[idx] = (bits & 0x01) != 0;
+            bits >>>= 1;
+        }
+        return value;
+    }
+
+}
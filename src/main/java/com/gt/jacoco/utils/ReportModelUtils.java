@@ -0,0 +1,223 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.*;
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.analysis.*;
+
+import java.util.*;
+
+/**
+ * 在报告模型（ReportPackage）上执行与 JacocoXmlUtils 相同的增量处理：
+ * 标记改动/未改动节点、计算方法结束行、合并历史覆盖率、重新统计覆盖率，统计规则由 ReportRules 实现。
+ * 所有处理都只依赖单个 package 的数据，可以逐个 package 流式执行
+ */
+@Slf4j
+public class ReportModelUtils {
+
+    private static final String CHANGED = "changed";
+
+    private static final String UNCHANGED = "unchanged";
+
+    /**
+     * 把分析得到的 package 覆盖率数据转换为报告模型，内容与 XMLFormatter 输出的 package 节点一致
+     *
+     * @param packageCoverage
+     * @return
+     */
+    public static ReportPackage toReportPackage(IPackageCoverage packageCoverage) {
+        ReportPackage reportPackage = new ReportPackage();
+        reportPackage.setName(packageCoverage.getName());
+        for (IClassCoverage classCoverage : packageCoverage.getClasses()) {
+            ReportClass reportClass = new ReportClass();
+            reportClass.setName(classCoverage.getName());
+            reportClass.setSourceFileName(classCoverage.getSourceFileName());
+            for (IMethodCoverage methodCoverage : classCoverage.getMethods()) {
+                ReportMethod method = new ReportMethod();
+                method.setName(methodCoverage.getName());
+                method.setDesc(methodCoverage.getDesc());
+                if (methodCoverage.getFirstLine() != ISourceNode.UNKNOWN_LINE) {
+                    method.setLine(methodCoverage.getFirstLine());
+                }
+                copyCounters(methodCoverage, method.getCounters());
+                reportClass.getMethods().add(method);
+            }
+            copyCounters(classCoverage, reportClass.getCounters());
+            reportPackage.getClasses().add(reportClass);
+        }
+        for (ISourceFileCoverage sourceFileCoverage : packageCoverage.getSourceFiles()) {
+            ReportSourceFile sourceFile = new ReportSourceFile();
+            sourceFile.setName(sourceFileCoverage.getName());
+            int lastLine = sourceFileCoverage.getLastLine();
+            for (int nr = sourceFileCoverage.getFirstLine(); nr <= lastLine; nr++) {
+                ILine line = sourceFileCoverage.getLine(nr);
+                if (line.getStatus() != ICounter.EMPTY) {
+                    sourceFile.addLine(nr
+                            , line.getInstructionCounter().getMissedCount()
+                            , line.getInstructionCounter().getCoveredCount()
+                            , line.getBranchCounter().getMissedCount()
+                            , line.getBranchCounter().getCoveredCount()
+                            , ReportSourceFile.MARK_NONE);
+                }
+            }
+            copyCounters(sourceFileCoverage, sourceFile.getCounters());
+            reportPackage.addSourceFile(sourceFile);
+        }
+        copyCounters(packageCoverage, reportPackage.getCounters());
+        return reportPackage;
+    }
+
+    /**
+     * 复制 total 大于 0 的 counter
+     *
+     * @param node
+     * @param counters
+     */
+    public static void copyCounters(ICoverageNode node, ReportCounters counters) {
+        ICoverageNode.CounterEntity[] entities = ICoverageNode.CounterEntity.values();
+        for (int type = 0; type < entities.length; type++) {
+            ICounter counter = node.getCounter(entities[type]);
+            if (counter.getTotalCount() > 0) {
+                counters.set(type, counter.getMissedCount(), counter.getCoveredCount());
+            }
+        }
+    }
+
+    /**
+     * 标记 package 内没有改动的节点并设置为100%覆盖，改动方法的结束行取自语法树，不属于改动方法的行设置为已覆盖，
+     * 没有改动的 class 和 package 的 counter 直接由子节点累加得到
+     *
+     * @param reportPackage
+     * @param changedMethodIndex
+     */
+    public static void refactorPackage(ReportPackage reportPackage, ChangedMethodIndex changedMethodIndex) {
+        Map<String, ChangedLineRanges> changedLines = new HashMap<>();
+        if (!changedMethodIndex.containsPackage(reportPackage.getName())) {
+            reportPackage.setMark(UNCHANGED);
+            for (ReportClass reportClass : reportPackage.getClasses()) {
+                setClassUnchanged(reportClass);
+            }
+            ReportRules.sumChildren(reportPackage.getCounters(), reportPackage.getClasses(), ReportClass::getCounters, ReportRules.ALL_COUNTER_TYPES);
+        } else {
+            for (ReportClass reportClass : reportPackage.getClasses()) {
+                Map<String, MethodReference> changedMethods = changedMethodIndex.getMethods(reportClass.getName());
+                if (changedMethods == null) {
+                    setClassUnchanged(reportClass);
+                    reportPackage.setDirty(true);
+                } else {
+                    ChangedLineRanges lineRanges = changedLines.computeIfAbsent(reportClass.getSourceFileName(), fileName -> new ChangedLineRanges());
+                    processForMethod(reportPackage, reportClass, changedMethods, lineRanges);
+                }
+            }
+        }
+        processForUnchangedLine(reportPackage, changedLines);
+    }
+
+    /**
+     * 用历史报告中 name/desc/hash 相同的方法的行覆盖数据合并 package 内有改动的方法
+     *
+     * @param reportPackage
+     * @param history
+     */
+    public static void mergePackage(ReportPackage reportPackage, ReportHistory history) {
+        for (ReportClass reportClass : reportPackage.getClasses()) {
+            if (!history.containsClass(reportClass.getName())) {
+                continue;
+            }
+            ReportSourceFile newLines = reportPackage.getSourceFile(reportClass.getSourceFileName());
+            ReportSourceFile oldLines = history.getSourceFile(reportClass.getName());
+            if (newLines == null || oldLines == null) {
+                continue;
+            }
+            for (ReportMethod method : reportClass.getMethods()) {
+                if (!CHANGED.equals(method.getMark())) {
+                    continue;
+                }
+                ReportMethod oldMethod = history.getMethod(reportClass.getName(), method.getName(), method.getDesc(), method.getHash());
+                if (oldMethod == null || method.getEndLine() < 0 || oldMethod.getEndLine() < 0) {
+                    continue;
+                }
+                if (ReportRules.mergeMethodLines(newLines, method.getLine(), method.getEndLine(), oldLines, oldMethod.getLine(), oldMethod.getEndLine(), method.getCounters())) {
+                    reportClass.setDirty(true);
+                } else {
+                    log.warn("合并时找不到方法起始行: {}.{}", reportClass.getName(), method.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * 重新统计 package 的覆盖率，增量模式下只重算被修改过的 class
+     *
+     * @param reportPackage
+     * @param full
+     */
+    public static void recountPackage(ReportPackage reportPackage, boolean full) {
+        boolean packageDirty = full || reportPackage.isDirty();
+        for (ReportClass reportClass : reportPackage.getClasses()) {
+            if (full || reportClass.isDirty()) {
+                packageDirty = true;
+                ReportRules.sumChildren(reportClass.getCounters(), reportClass.getMethods(), ReportMethod::getCounters, ReportRules.METHOD_COUNTER_TYPES);
+                reportClass.setDirty(false);
+            }
+        }
+        if (packageDirty) {
+            ReportRules.sumChildren(reportPackage.getCounters(), reportPackage.getClasses(), ReportClass::getCounters, ReportRules.ALL_COUNTER_TYPES);
+            reportPackage.setDirty(false);
+        }
+    }
+
+    /**
+     * 没有改动的 class：方法全部设置为100%覆盖，class 的 counter 直接由方法累加得到
+     *
+     * @param reportClass
+     */
+    private static void setClassUnchanged(ReportClass reportClass) {
+        for (ReportMethod method : reportClass.getMethods()) {
+            setMethodUnchanged(method);
+        }
+        ReportRules.sumChildren(reportClass.getCounters(), reportClass.getMethods(), ReportMethod::getCounters, ReportRules.METHOD_COUNTER_TYPES);
+        reportClass.setMark(UNCHANGED);
+    }
+
+    private static void setMethodUnchanged(ReportMethod method) {
+        ReportRules.coverAll(method.getCounters(), ReportRules.METHOD_COUNTER_TYPES);
+        method.setMark(UNCHANGED);
+    }
+
+    /**
+     * 标记没改动的method，对改动过的method设置body hash 和语法树中的结束行，并记录它的行号区间
+     *
+     * @param reportPackage
+     * @param reportClass
+     * @param changedMethods name + desc -> 改动的方法
+     * @param lineRanges     class 所在 sourcefile 的改动行区间
+     */
+    private static void processForMethod(ReportPackage reportPackage, ReportClass reportClass, Map<String, MethodReference> changedMethods, ChangedLineRanges lineRanges) {
+        for (ReportMethod method : reportClass.getMethods()) {
+            MethodReference methodReference = changedMethods.get(method.getName() + method.getDesc());
+            if (methodReference != null) {
+                method.setHash(methodReference.getMethodBodyHash());
+                method.setMark(CHANGED);
+                method.setEndLine(methodReference.getEndLine());
+                lineRanges.add(methodReference.getBeginLine(), methodReference.getEndLine());
+                reportPackage.setMark(CHANGED);
+            } else {
+                setMethodUnchanged(method);
+                reportClass.setDirty(true);
+            }
+        }
+    }
+
+    /**
+     * 不在任何改动方法行号区间内的行全部设置为已覆盖
+     *
+     * @param reportPackage
+     * @param changedLines  sourcefile 名称 -> 改动行区间
+     */
+    private static void processForUnchangedLine(ReportPackage reportPackage, Map<String, ChangedLineRanges> changedLines) {
+        for (ReportSourceFile sourceFile : reportPackage.getSourceFiles().values()) {
+            ReportRules.coverUnchangedLines(sourceFile, changedLines.get(sourceFile.getName()));
+        }
+    }
+
+}
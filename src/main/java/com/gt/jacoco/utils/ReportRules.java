@@ -0,0 +1,129 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.ChangedLineRanges;
+import com.gt.jacoco.entity.CoverageCounters;
+import com.gt.jacoco.entity.CoverageLines;
+import com.gt.jacoco.entity.ReportCounters;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 增量报告的统计规则：未改动节点和未改动行全部计为已覆盖、合并历史报告中的行覆盖数据、用子节点累加父节点的 counter。
+ * dom 模式（JacocoXmlUtils）和报告模型（ReportModelUtils）只负责遍历各自的节点，规则都在这里实现
+ */
+public class ReportRules {
+
+    /**
+     * method 和 class 只统计 CLASS 之前的 counter，class 自身的 CLASS counter 不重算
+     */
+    public static final int METHOD_COUNTER_TYPES = ReportCounters.CLASS;
+
+    /**
+     * package 和 report 统计所有类型的 counter
+     */
+    public static final int ALL_COUNTER_TYPES = ReportCounters.TYPES.length;
+
+    private ReportRules() {
+    }
+
+    /**
+     * 把前 typeCount 种 counter 全部改成已覆盖
+     *
+     * @param counters
+     * @param typeCount
+     */
+    public static void coverAll(CoverageCounters counters, int typeCount) {
+        for (int type = 0; type < typeCount; type++) {
+            if (counters.has(type)) {
+                counters.update(type, 0, counters.getCovered(type) + counters.getMissed(type));
+            }
+        }
+    }
+
+    /**
+     * 用子节点的 counter 之和覆盖父节点已经存在的前 typeCount 种 counter
+     *
+     * @param parent
+     * @param children
+     * @param childCounters 子节点 -> counter
+     * @param typeCount
+     */
+    public static <T> void sumChildren(CoverageCounters parent, List<T> children, Function<T, ? extends CoverageCounters> childCounters, int typeCount) {
+        int[] missed = new int[typeCount];
+        int[] covered = new int[typeCount];
+        for (T child : children) {
+            CoverageCounters counters = childCounters.apply(child);
+            for (int type = 0; type < typeCount; type++) {
+                if (counters.has(type)) {
+                    missed[type] += counters.getMissed(type);
+                    covered[type] += counters.getCovered(type);
+                }
+            }
+        }
+        for (int type = 0; type < typeCount; type++) {
+            parent.update(type, missed[type], covered[type]);
+        }
+    }
+
+    /**
+     * 不在任何改动方法行号区间内的行全部设置为已覆盖
+     *
+     * @param lines
+     * @param lineRanges sourcefile 的改动行区间，没有改动方法时为 null
+     */
+    public static void coverUnchangedLines(CoverageLines lines, ChangedLineRanges lineRanges) {
+        for (int lineOffset = 0; lineOffset < lines.size(); lineOffset++) {
+            if (lineRanges != null && lineRanges.contains(lines.nr(lineOffset))) {
+                continue;
+            }
+            lines.setLine(lineOffset, 0, lines.ci(lineOffset) + lines.mi(lineOffset)
+                    , 0, lines.cb(lineOffset) + lines.mb(lineOffset), CoverageLines.MARK_UNCHANGED);
+        }
+    }
+
+    /**
+     * 合并单个方法的行覆盖数据：未覆盖取小，已覆盖取大，并用合并后的行重新计算方法的 INSTRUCTION、BRANCH counter
+     *
+     * @param newLines
+     * @param newStartLine
+     * @param newEndLine
+     * @param oldLines
+     * @param oldStartLine
+     * @param oldEndLine
+     * @param methodCounters
+     * @return 找不到方法起始行时返回 false
+     */
+    public static boolean mergeMethodLines(CoverageLines newLines, int newStartLine, int newEndLine
+            , CoverageLines oldLines, int oldStartLine, int oldEndLine, CoverageCounters methodCounters) {
+        int newLineOffset = newLines.indexOf(newStartLine);
+        int oldLineOffset = oldLines.indexOf(oldStartLine);
+        if (newLineOffset < 0 || oldLineOffset < 0) {
+            return false;
+        }
+        int miTotal = 0;
+        int ciTotal = 0;
+        int mbTotal = 0;
+        int cbTotal = 0;
+        while (newStartLine <= newEndLine && oldStartLine <= oldEndLine && newLineOffset < newLines.size() - 1 && oldLineOffset < oldLines.size() - 1) {
+            newLines.setLine(newLineOffset
+                    , Math.min(newLines.mi(newLineOffset), oldLines.mi(oldLineOffset))
+                    , Math.max(newLines.ci(newLineOffset), oldLines.ci(oldLineOffset))
+                    , Math.min(newLines.mb(newLineOffset), oldLines.mb(oldLineOffset))
+                    , Math.max(newLines.cb(newLineOffset), oldLines.cb(oldLineOffset))
+                    , CoverageLines.MARK_CHANGED);
+            newLineOffset++;
+            oldLineOffset++;
+            newStartLine = newLines.nr(newLineOffset);
+            oldStartLine = oldLines.nr(oldLineOffset);
+            miTotal += newLines.mi(newLineOffset);
+            ciTotal += newLines.ci(newLineOffset);
+            mbTotal += newLines.mb(newLineOffset);
+            cbTotal += newLines.cb(newLineOffset);
+        }
+        methodCounters.update(ReportCounters.INSTRUCTION, miTotal, ciTotal);
+        methodCounters.update(ReportCounters.BRANCH, mbTotal, cbTotal);
+        return true;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.gt.jacoco.utils;
+
+import com.github.javaparser.StaticJavaParser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 方法体指纹：只与 token 流有关，与空白、换行和注释无关
+ */
+public class ASTUtilsTest {
+
+    @Test
+    public void testWhitespaceAndComments() {
+        long expected = fingerprint("{ int a = 1; return a + 2; }");
+        assertEquals(expected, fingerprint("{int a=1;return a+2;}"));
+        assertEquals(expected, fingerprint("{\n    // 注释\n    int a = 1;\n\n    /* 注释 */ return a\n        + 2;\n}"));
+        assertEquals(expected, fingerprint("{\n\tint a = 1; /** doc */\r\n\treturn a + 2;\n}"));
+    }
+
+    @Test
+    public void testDifferentCode() {
+        long expected = fingerprint("{ int a = 1; return a + 2; }");
+        assertNotEquals(expected, fingerprint("{ int a = 1; return a + 3; }"));
+        assertNotEquals(expected, fingerprint("{ int b = 1; return b + 2; }"));
+        assertNotEquals(expected, fingerprint("{ return 1 + 2; }"));
+        assertNotEquals(expected, fingerprint("{ int a = 1; return a + \"2\".length(); }"));
+        assertNotEquals(fingerprint("{ log(\"a b\"); }"), fingerprint("{ log(\"ab\"); }"));
+    }
+
+    @Test
+    public void testTokenSeparator() {
+        assertNotEquals("- - 和 -- 连接后的文本相同但 token 不同", fingerprint("{ x = - -y; }"), fingerprint("{ x = --y; }"));
+        assertNotEquals(fingerprint("{ x = y + +z; }"), fingerprint("{ x = y++ + z; }"));
+    }
+
+    @Test
+    public void testEmptyBody() {
+        assertEquals(fingerprint("{}"), fingerprint("{ /* 空 */ }"));
+        assertNotEquals(fingerprint("{}"), fingerprint("{ ; }"));
+    }
+
+    private static long fingerprint(String block) {
+        return ASTUtils.bodyFingerprint(StaticJavaParser.parseBlock(block));
+    }
+
+}
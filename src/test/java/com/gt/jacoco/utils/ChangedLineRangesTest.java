@@ -0,0 +1,86 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.ChangedLineRanges;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 改动方法行号区间：重叠、相邻、乱序以及行号未知的区间
+ */
+public class ChangedLineRangesTest {
+
+    @Test
+    public void testEmpty() {
+        ChangedLineRanges ranges = new ChangedLineRanges();
+        assertFalse(ranges.contains(0));
+        assertFalse(ranges.contains(1));
+    }
+
+    @Test
+    public void testUnknownRangesIgnored() {
+        ChangedLineRanges ranges = new ChangedLineRanges();
+        ranges.add(-1, -1);
+        ranges.add(-1, 10);
+        ranges.add(10, 9);
+        for (int line = -1; line <= 11; line++) {
+            assertFalse(String.valueOf(line), ranges.contains(line));
+        }
+    }
+
+    @Test
+    public void testOverlappingAndAdjacent() {
+        ChangedLineRanges ranges = new ChangedLineRanges();
+        ranges.add(30, 40);
+        ranges.add(10, 20);
+        ranges.add(15, 25);
+        ranges.add(26, 28);
+        ranges.add(50, 50);
+        assertFalse(ranges.contains(9));
+        for (int line = 10; line <= 28; line++) {
+            assertTrue(String.valueOf(line), ranges.contains(line));
+        }
+        assertFalse(ranges.contains(29));
+        assertTrue(ranges.contains(30));
+        assertTrue(ranges.contains(40));
+        assertFalse(ranges.contains(41));
+        assertFalse(ranges.contains(49));
+        assertTrue(ranges.contains(50));
+        assertFalse(ranges.contains(51));
+    }
+
+    @Test
+    public void testAddAfterContains() {
+        ChangedLineRanges ranges = new ChangedLineRanges();
+        ranges.add(10, 20);
+        assertFalse(ranges.contains(5));
+        ranges.add(1, 5);
+        assertTrue(ranges.contains(5));
+        assertTrue(ranges.contains(15));
+        assertFalse(ranges.contains(7));
+    }
+
+    @Test
+    public void testRandomRanges() {
+        Random random = new Random(0);
+        for (int round = 0; round < 100; round++) {
+            ChangedLineRanges ranges = new ChangedLineRanges();
+            boolean[] expected = new boolean[300];
+            int count = random.nextInt(20);
+            for (int idx = 0; idx < count; idx++) {
+                int begin = random.nextInt(250);
+                int end = begin + random.nextInt(30);
+                ranges.add(begin, end);
+                for (int line = begin; line <= end; line++) {
+                    expected[line] = true;
+                }
+            }
+            for (int line = 0; line < expected.length; line++) {
+                assertEquals(round + ":" + line, expected[line], ranges.contains(line));
+            }
+        }
+    }
+
+}
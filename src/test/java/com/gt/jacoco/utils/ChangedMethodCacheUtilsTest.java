@@ -0,0 +1,85 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.config.Config;
+import com.gt.jacoco.entity.MethodReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 改动方法缓存：内存缓存、磁盘缓存在重启后的复用，以及没有配置缓存目录时只使用内存
+ */
+public class ChangedMethodCacheUtilsTest {
+
+    private Path dir;
+
+    private Config config;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("changed-method");
+        config = new Config();
+        config.setChangedMethodCacheDir(dir.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testDiskCache() {
+        Map<String, List<MethodReference>> methodChanged = methodChanged();
+        newCacheUtils().put("app", "old1", "new1", methodChanged);
+        newCacheUtils().put("app", "old1", "new2", methodChanged);
+
+        ChangedMethodCacheUtils restarted = newCacheUtils();
+        assertEquals(methodChanged, restarted.get("app", "old1", "new2"));
+        assertNull("同一个应用只保留最新的结果", restarted.get("app", "old1", "new1"));
+        assertNull(restarted.get("other", "old1", "new2"));
+        assertNull(restarted.get("app", null, "new2"));
+    }
+
+    @Test
+    public void testMemoryOnly() throws IOException {
+        config.setChangedMethodCacheDir(null);
+        ChangedMethodCacheUtils changedMethodCacheUtils = newCacheUtils();
+        assertFalse(changedMethodCacheUtils.isEnabled());
+        assertNull(changedMethodCacheUtils.get("app", "old1", "new1"));
+
+        Map<String, List<MethodReference>> methodChanged = methodChanged();
+        changedMethodCacheUtils.put("app", "old1", "new1", methodChanged);
+        assertSame(methodChanged, changedMethodCacheUtils.get("app", "old1", "new1"));
+        assertNull(changedMethodCacheUtils.get("app", "old1", "new2"));
+        assertNull(newCacheUtils().get("app", "old1", "new1"));
+        try (Stream<Path> paths = Files.list(dir)) {
+            assertEquals(0, paths.count());
+        }
+    }
+
+    private ChangedMethodCacheUtils newCacheUtils() {
+        ChangedMethodCacheUtils changedMethodCacheUtils = new ChangedMethodCacheUtils();
+        ReflectionTestUtils.setField(changedMethodCacheUtils, "config", config);
+        return changedMethodCacheUtils;
+    }
+
+    private static Map<String, List<MethodReference>> methodChanged() {
+        Map<String, List<MethodReference>> methodChanged = new HashMap<>();
+        methodChanged.put("com/gt/A", Arrays.asList(new MethodReference("a()V", 1L, 3, 5), new MethodReference("b(I)V", -2L, 7, 9)));
+        methodChanged.put("com/gt/B", Collections.emptyList());
+        return methodChanged;
+    }
+
+}
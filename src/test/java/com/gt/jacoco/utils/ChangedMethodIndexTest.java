@@ -0,0 +1,53 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.ChangedMethodIndex;
+import com.gt.jacoco.entity.MethodReference;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 改动方法索引：按内部类名和 name + desc 查找，package 取类名最后一个 / 之前的部分
+ */
+public class ChangedMethodIndexTest {
+
+    @Test
+    public void testPackages() {
+        Map<String, List<MethodReference>> classMethodChanged = new HashMap<>();
+        classMethodChanged.put("com/gt/A", Collections.singletonList(method("a()V", 1)));
+        classMethodChanged.put("com/gt/sub/B$Inner", Collections.emptyList());
+        classMethodChanged.put("Root", Collections.singletonList(method("r()V", 2)));
+        ChangedMethodIndex index = new ChangedMethodIndex(classMethodChanged);
+        assertTrue(index.containsPackage("com/gt"));
+        assertTrue(index.containsPackage("com/gt/sub"));
+        assertTrue(index.containsPackage(""));
+        assertFalse(index.containsPackage("com"));
+        assertFalse(index.containsPackage("com/gt/other"));
+    }
+
+    @Test
+    public void testMethods() {
+        Map<String, List<MethodReference>> classMethodChanged = new HashMap<>();
+        MethodReference first = method("a(Ljava/lang/String;)V", 1);
+        classMethodChanged.put("com/gt/A", Arrays.asList(first, method("a(Ljava/lang/String;)V", 2), method("a()V", 3)));
+        classMethodChanged.put("com/gt/B", Collections.emptyList());
+        ChangedMethodIndex index = new ChangedMethodIndex(classMethodChanged);
+
+        Map<String, MethodReference> methods = index.getMethods("com/gt/A");
+        assertEquals(2, methods.size());
+        assertSame("重复的方法保留第一个", first, methods.get("a(Ljava/lang/String;)V"));
+        assertEquals(3, methods.get("a()V").getBodyFingerprint());
+        assertNull(methods.get("a"));
+
+        assertTrue("没有改动方法的 class 也属于改动的 class", index.getMethods("com/gt/B").isEmpty());
+        assertNull(index.getMethods("com/gt/C"));
+        assertNull(index.getMethods("com/gt/A$1"));
+    }
+
+    private static MethodReference method(String methodNameWithParams, long bodyFingerprint) {
+        return new MethodReference(methodNameWithParams, bodyFingerprint, 1, 2);
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.gt.jacoco.utils;
+
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ICoverageNode;
+import org.jacoco.core.analysis.IMethodCoverage;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 把运行时数据重放到 class 结构上，结果需要与 jacoco 的 Analyzer 完全一致
+ */
+public class ClassStructureTest {
+
+    /**
+     * 除了项目自己的 class，再取几个 jacoco 和 asm 中分支较多的 class
+     */
+    private static final Class<?>[] LIBRARY_CLASSES = {Analyzer.class, ExecutionDataStore.class, ClassReader.class};
+
+    @Test
+    public void testApplyWithoutExecutionData() throws IOException {
+        for (byte[] classBytes : classFiles()) {
+            assertSameCoverage(classBytes, new ExecutionDataStore());
+        }
+    }
+
+    @Test
+    public void testApplyWithExecutionData() throws IOException {
+        Random random = new Random(0);
+        for (byte[] classBytes : classFiles()) {
+            long classId = CRC64.classId(classBytes);
+            String className = new ClassReader(classBytes).getClassName();
+            int probeCount = probeCount(classBytes);
+            for (int round = 0; round < 4; round++) {
+                boolean[] probes = new boolean[probeCount];
+                for (int idx = 0; idx < probeCount; idx++) {
+                    probes[idx] = round == 3 || (round > 0 && random.nextBoolean());
+                }
+                ExecutionDataStore executionDataStore = new ExecutionDataStore();
+                executionDataStore.put(new ExecutionData(classId, className, probes));
+                assertSameCoverage(classBytes, executionDataStore);
+            }
+        }
+    }
+
+    @Test
+    public void testApplyNoMatch() throws IOException {
+        byte[] classBytes = classFiles().get(0);
+        String className = new ClassReader(classBytes).getClassName();
+        ExecutionDataStore executionDataStore = new ExecutionDataStore();
+        executionDataStore.put(new ExecutionData(CRC64.classId(classBytes) + 1, className, new boolean[probeCount(classBytes)]));
+        IClassCoverage coverage = ClassStructureRecorder.record(classBytes).apply(CRC64.classId(classBytes), executionDataStore);
+        assertTrue(coverage.isNoMatch());
+        assertSameCoverage(classBytes, executionDataStore);
+    }
+
+    @Test
+    public void testReadWriteRoundTrip() throws IOException {
+        for (byte[] classBytes : classFiles()) {
+            ClassStructure structure = ClassStructureRecorder.record(classBytes);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            structure.write(new DataOutputStream(bytes));
+            ClassStructure read = ClassStructure.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            ExecutionDataStore executionDataStore = new ExecutionDataStore();
+            long classId = CRC64.classId(classBytes);
+            assertSameCoverage(structure.apply(classId, executionDataStore), read.apply(classId, executionDataStore));
+        }
+    }
+
+    @Test
+    public void testReadCorruptedLength() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF("com/x/A");
+        out.writeBoolean(false);
+        out.writeBoolean(false);
+        out.writeInt(-1);
+        out.writeBoolean(false);
+        out.writeInt(Integer.MAX_VALUE);
+        try {
+            ClassStructure.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("损坏的长度需要抛出异常");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(String.valueOf(Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    public void testMatches() throws IOException {
+        for (byte[] classBytes : classFiles()) {
+            String className = new ClassReader(classBytes).getClassName();
+            long classId = CRC64.classId(classBytes);
+            int probeCount = probeCount(classBytes);
+            ClassStructure structure = ClassStructureRecorder.record(classBytes);
+            assertTrue(structure.matches(className, null));
+            assertTrue(structure.matches(className, new ExecutionData(classId, className, probeCount)));
+            assertFalse(structure.matches(className + "$Other", null));
+            if (probeCount > 0) {
+                assertFalse(structure.matches(className, new ExecutionData(classId, className, probeCount - 1)));
+            }
+        }
+    }
+
+    private static void assertSameCoverage(byte[] classBytes, ExecutionDataStore executionDataStore) throws IOException {
+        List<IClassCoverage> expected = new ArrayList<>();
+        new Analyzer(executionDataStore, expected::add).analyzeClass(classBytes, "test");
+        assertEquals(1, expected.size());
+        IClassCoverage actual = ClassStructureRecorder.record(classBytes).apply(CRC64.classId(classBytes), executionDataStore);
+        assertSameCoverage(expected.get(0), actual);
+    }
+
+    private static void assertSameCoverage(IClassCoverage expected, IClassCoverage actual) {
+        String className = expected.getName();
+        assertEquals(className, actual.getName());
+        assertEquals(className, expected.getId(), actual.getId());
+        assertEquals(className, expected.isNoMatch(), actual.isNoMatch());
+        assertEquals(className, expected.getSignature(), actual.getSignature());
+        assertEquals(className, expected.getSuperName(), actual.getSuperName());
+        assertArrayEquals(className, expected.getInterfaceNames(), actual.getInterfaceNames());
+        assertEquals(className, expected.getSourceFileName(), actual.getSourceFileName());
+        assertSameCounters(className, expected, actual);
+        assertEquals(className, expected.getMethods().size(), actual.getMethods().size());
+        Iterator<IMethodCoverage> actualMethods = actual.getMethods().iterator();
+        for (IMethodCoverage expectedMethod : expected.getMethods()) {
+            IMethodCoverage actualMethod = actualMethods.next();
+            String methodName = className + "." + expectedMethod.getName() + expectedMethod.getDesc();
+            assertEquals(methodName, expectedMethod.getName() + expectedMethod.getDesc(), actualMethod.getName() + actualMethod.getDesc());
+            assertSameCounters(methodName, expectedMethod, actualMethod);
+            assertEquals(methodName, expectedMethod.getFirstLine(), actualMethod.getFirstLine());
+            assertEquals(methodName, expectedMethod.getLastLine(), actualMethod.getLastLine());
+            for (int line = expectedMethod.getFirstLine(); line <= expectedMethod.getLastLine(); line++) {
+                assertEquals(methodName + ":" + line, expectedMethod.getLine(line).getStatus(), actualMethod.getLine(line).getStatus());
+                assertEquals(methodName + ":" + line, expectedMethod.getLine(line).getBranchCounter(), actualMethod.getLine(line).getBranchCounter());
+            }
+        }
+    }
+
+    private static void assertSameCounters(String message, ICoverageNode expected, ICoverageNode actual) {
+        for (ICoverageNode.CounterEntity entity : ICoverageNode.CounterEntity.values()) {
+            ICounter expectedCounter = expected.getCounter(entity);
+            ICounter actualCounter = actual.getCounter(entity);
+            assertEquals(message + " " + entity, expectedCounter, actualCounter);
+        }
+    }
+
+    /**
+     * jacoco 为 class 分配的探针数，与运行时数据中探针数组的长度相同
+     */
+    private static int probeCount(byte[] classBytes) {
+        int[] count = new int[1];
+        new ClassReader(classBytes).accept(new ClassProbesAdapter(new ClassProbesVisitor() {
+            @Override
+            public MethodProbesVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return null;
+            }
+
+            @Override
+            public void visitTotalProbeCount(int totalProbeCount) {
+                count[0] = totalProbeCount;
+            }
+        }, false), 0);
+        return count[0];
+    }
+
+    /**
+     * Analyzer 不分析 module-info 和编译器生成的 class
+     */
+    private static List<byte[]> classFiles() throws IOException {
+        List<byte[]> classFiles = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(Paths.get("target", "classes"))) {
+            for (Path path : paths.filter(path -> path.toString().endsWith(".class")).sorted().collect(Collectors.toList())) {
+                byte[] classBytes = Files.readAllBytes(path);
+                if ((new ClassReader(classBytes).getAccess() & (Opcodes.ACC_MODULE | Opcodes.ACC_SYNTHETIC)) == 0) {
+                    classFiles.add(classBytes);
+                }
+            }
+        }
+        for (Class<?> type : LIBRARY_CLASSES) {
+            try (InputStream in = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    bytes.write(buffer, 0, length);
+                }
+                classFiles.add(bytes.toByteArray());
+            }
+        }
+        return classFiles;
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.config.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 编译输出缓存：保存上传的构建产物、占用和释放缓存，以及没有配置缓存目录时不使用缓存
+ */
+public class CompileCacheUtilsTest {
+
+    private static final String COMMIT_ID = "0123456789abcdef0123456789abcdef01234567";
+
+    private Path dir;
+
+    private Config config;
+
+    private CompileCacheUtils compileCacheUtils;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("compile-cache");
+        config = new Config();
+        config.setCompileCacheDir(dir.toString());
+        compileCacheUtils = new CompileCacheUtils();
+        ReflectionTestUtils.setField(compileCacheUtils, "config", config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testPutArtifact() throws IOException {
+        assertNull(compileCacheUtils.get("app", COMMIT_ID));
+        File entry = compileCacheUtils.putArtifact("app", COMMIT_ID, artifact("first"));
+        assertEquals("first", read(entry, "com/gt/A.class"));
+        assertFalse("依赖不参与分析", new File(entry, "target/classes/lib/dep.class").exists());
+
+        File cached = compileCacheUtils.get("app", COMMIT_ID);
+        assertEquals(entry, cached);
+        compileCacheUtils.release(cached);
+    }
+
+    @Test
+    public void testReplacePinned() throws IOException {
+        compileCacheUtils.putArtifact("app", COMMIT_ID, artifact("first"));
+        File cached = compileCacheUtils.get("app", COMMIT_ID);
+        File again = compileCacheUtils.get("app", COMMIT_ID);
+
+        compileCacheUtils.putArtifact("app", COMMIT_ID, artifact("second"));
+        assertEquals("占用期间不替换", "first", read(cached, "com/gt/A.class"));
+        compileCacheUtils.putArtifact("app", COMMIT_ID, artifact("third"));
+        assertEquals("first", read(cached, "com/gt/A.class"));
+
+        compileCacheUtils.release(cached);
+        assertEquals("还有一次占用", "first", read(again, "com/gt/A.class"));
+        compileCacheUtils.release(again);
+        assertEquals("最后一次释放时替换为最后上传的内容", "third", read(cached, "com/gt/A.class"));
+        try (Stream<Path> paths = Files.list(dir.resolve("app"))) {
+            assertEquals("临时目录都已删除", 1, paths.count());
+        }
+
+        compileCacheUtils.putArtifact("app", COMMIT_ID, artifact("fourth"));
+        assertEquals("没有占用时立即替换", "fourth", read(cached, "com/gt/A.class"));
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        config.setCompileCacheDir(null);
+        assertFalse(compileCacheUtils.isEnabled());
+        assertNull(compileCacheUtils.get("app", COMMIT_ID));
+        try {
+            compileCacheUtils.putArtifact("app", COMMIT_ID, artifact("first"));
+            fail("没有配置缓存目录时不能保存构建产物");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("compileCacheDir"));
+        }
+        compileCacheUtils.release(dir.toFile());
+    }
+
+    /**
+     * spring boot jar：应用自身的 class 在 BOOT-INF/classes 下，依赖在 BOOT-INF/lib 下
+     */
+    private static ByteArrayInputStream artifact(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("BOOT-INF/classes/com/gt/A.class"));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("BOOT-INF/lib/dep.class"));
+            zip.write(1);
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static String read(File entry, String className) throws IOException {
+        return new String(Files.readAllBytes(new File(entry, "target/classes/" + className).toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.gt.jacoco.utils;
+
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * 方法描述符解析：单类型 import、同包、按需 import 和 java.lang 的查找顺序
+ */
+public class DescriptorResolverTest {
+
+    private static final Set<String> PROJECT_TYPES = new HashSet<>(Arrays.asList(
+            "com/leo/TestController", "com/leo/Request", "com/leo/dto/UserDto"));
+
+    @Test
+    public void testImports() {
+        assertEquals("say(Ljava/util/List;Lcom/leo/Request;Ljava/lang/String;)V",
+                descriptor("import java.util.List;", "void say(List a, Request b, String c) {}"));
+        assertEquals("say(Lcom/leo/dto/UserDto;Ljava/util/Map$Entry;)V",
+                descriptor("import com.leo.dto.*; import java.util.*;", "void say(UserDto a, Map.Entry b) {}"));
+        assertEquals("say(Ljava/lang/Object;)Ljava/lang/Number;",
+                descriptor("", "<T extends Number> T say(Object a) { return null; }"));
+    }
+
+    @Test
+    public void testUnknownOnDemandImport() {
+        assertEquals("依赖包中的类型不在收集器的 ClassLoader 中，不能按同包处理",
+                "say(Lorg/apache/commons/lang3/StringUtils;)V",
+                descriptor("import org.apache.commons.lang3.*; import java.util.*;", "void say(StringUtils a) {}"));
+        assertEquals("同包中存在的类型优先",
+                "say(Lcom/leo/Request;)V",
+                descriptor("import org.apache.commons.lang3.*;", "void say(Request a) {}"));
+        assertEquals("jdk 和仓库中的包都没有时按同包处理",
+                "say(Lcom/leo/Generated;)V",
+                descriptor("import com.leo.dto.*; import java.util.*;", "void say(Generated a) {}"));
+    }
+
+    @Test
+    public void testSharedClasspathTypes() {
+        Map<String, Boolean> classpathTypes = new ConcurrentHashMap<>();
+        DescriptorResolver resolver = new DescriptorResolver(Collections.emptySet(), classpathTypes);
+        resolver.getMethodDefinitionName(method("import java.util.*;", "void say(List a) {}"));
+        assertEquals(Boolean.TRUE, classpathTypes.get("java/util/List"));
+    }
+
+    private static String descriptor(String imports, String method) {
+        return new DescriptorResolver(PROJECT_TYPES).getMethodDefinitionName(method(imports, method));
+    }
+
+    private static MethodDeclaration method(String imports, String method) {
+        return StaticJavaParser.parse("package com.leo; " + imports + " public class TestController { " + method + " }")
+                .findFirst(MethodDeclaration.class).get();
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.CoverageLines;
+import com.gt.jacoco.entity.ReportCounters;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * jacoco xml 文档索引：class、method(name/desc/hash) 查找，sourcefile 的 line 数组和 counter 的读写
+ */
+public class JacocoXmlIndexTest {
+
+    private static final String XML = "<report name=\"test\">"
+            + "<package name=\"com/gt\">"
+            + "<class name=\"com/gt/A\" sourcefilename=\"A.java\">"
+            + "<method name=\"a\" desc=\"()V\" line=\"3\" hash=\"1f\"><counter type=\"INSTRUCTION\" missed=\"2\" covered=\"3\"/></method>"
+            + "<method name=\"a\" desc=\"(I)V\" line=\"7\"><counter type=\"INSTRUCTION\" missed=\"1\" covered=\"0\"/></method>"
+            + "<counter type=\"INSTRUCTION\" missed=\"3\" covered=\"3\"/><counter type=\"CLASS\" missed=\"0\" covered=\"1\"/>"
+            + "</class>"
+            + "<class name=\"com/gt/A$1\" sourcefilename=\"A.java\"/>"
+            + "<class name=\"com/gt/NoSource\" sourcefilename=\"Missing.java\"/>"
+            + "<sourcefile name=\"A.java\">"
+            + "<line nr=\"3\" mi=\"2\" ci=\"3\" mb=\"1\" cb=\"1\"/>"
+            + "<line nr=\"7\" mi=\"1\" ci=\"0\" mb=\"0\" cb=\"0\"/>"
+            + "<line nr=\"12\" mi=\"0\" ci=\"4\" mb=\"0\" cb=\"2\"/>"
+            + "</sourcefile>"
+            + "</package>"
+            + "<package name=\"com/other\">"
+            + "<class name=\"com/gt/A\" sourcefilename=\"A.java\"/>"
+            + "<class name=\"com/other/B\" sourcefilename=\"A.java\"/>"
+            + "</package>"
+            + "</report>";
+
+    private Document document;
+
+    private JacocoXmlIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        document = DocumentHelper.parseText(XML);
+        index = JacocoXmlIndex.build(document);
+    }
+
+    @Test
+    public void testClasses() {
+        assertEquals(4, index.getClasses().size());
+        JacocoXmlIndex.ClassEntry classEntry = index.getClass("com/gt/A");
+        assertEquals("重复的 class 保留第一个", "com/gt", classEntry.getElement().getParent().attributeValue("name"));
+        assertEquals(2, classEntry.getMethods().size());
+        assertNull(index.getClass("com/gt/C"));
+    }
+
+    @Test
+    public void testMethods() {
+        JacocoXmlIndex.ClassEntry classEntry = index.getClass("com/gt/A");
+        Element method = classEntry.getMethod("a", "()V", "1f");
+        assertNotNull(method);
+        assertEquals("3", method.attributeValue("line"));
+        assertNull(classEntry.getMethod("a", "()V", "2f"));
+        assertNull(classEntry.getMethod("a", "(I)V", "1f"));
+        assertNull("没有 hash 的方法不建立索引", classEntry.getMethod("a", "(I)V", null));
+    }
+
+    @Test
+    public void testLineTable() {
+        JacocoXmlIndex.LineTable lines = index.getLineTable(index.getClass("com/gt/A"));
+        assertSame("同一个 sourcefile 的 line 数组只建立一次", lines, index.getLineTable(index.getClass("com/gt/A$1")));
+        assertNull(index.getLineTable(index.getClass("com/gt/NoSource")));
+        assertNull("sourcefile 只在 class 所在的 package 中查找", index.getLineTable(index.getClass("com/other/B")));
+
+        assertEquals(3, lines.size());
+        assertEquals(0, lines.indexOf(3));
+        assertEquals(2, lines.indexOf(12));
+        assertEquals(-1, lines.indexOf(4));
+        assertEquals(-1, lines.indexOf(13));
+        assertEquals(-1, lines.indexOf(-1));
+        assertEquals(7, lines.nr(1));
+        assertEquals(Arrays.asList(2, 3, 1, 1), Arrays.asList(lines.mi(0), lines.ci(0), lines.mb(0), lines.cb(0)));
+
+        lines.setLine(1, 0, 1, 0, 0, CoverageLines.MARK_CHANGED);
+        lines.setLine(2, 0, 4, 0, 2, CoverageLines.MARK_UNCHANGED);
+        assertEquals(1, lines.ci(1));
+        Element line = (Element) document.selectSingleNode("report/package/sourcefile/line[@nr='7']");
+        assertEquals("0", line.attributeValue("mi"));
+        assertEquals("1", line.attributeValue("ci"));
+        assertEquals("changed", line.attributeValue("mark"));
+        line = (Element) document.selectSingleNode("report/package/sourcefile/line[@nr='12']");
+        assertEquals("unchanged", line.attributeValue("mark"));
+        line = (Element) document.selectSingleNode("report/package/sourcefile/line[@nr='3']");
+        assertNull(line.attributeValue("mark"));
+    }
+
+    @Test
+    public void testCounters() {
+        Element classElement = index.getClass("com/gt/A").getElement();
+        assertEquals("CLASS", JacocoXmlIndex.findCounter(classElement, "CLASS").attributeValue("type"));
+        assertNull(JacocoXmlIndex.findCounter(classElement, "BRANCH"));
+
+        JacocoXmlIndex.CounterTable counters = new JacocoXmlIndex.CounterTable(classElement);
+        assertTrue(counters.has(ReportCounters.INSTRUCTION));
+        assertFalse(counters.has(ReportCounters.BRANCH));
+        assertTrue(counters.has(ReportCounters.CLASS));
+        assertEquals(3, counters.getMissed(ReportCounters.INSTRUCTION));
+        assertEquals(1, counters.getCovered(ReportCounters.CLASS));
+
+        counters.update(ReportCounters.INSTRUCTION, 0, 6);
+        counters.update(ReportCounters.BRANCH, 1, 1);
+        Element instruction = JacocoXmlIndex.findCounter(classElement, "INSTRUCTION");
+        assertEquals("0", instruction.attributeValue("missed"));
+        assertEquals("6", instruction.attributeValue("covered"));
+        assertFalse("不存在的 counter 不会被创建", counters.has(ReportCounters.BRANCH));
+        assertNull(JacocoXmlIndex.findCounter(classElement, "BRANCH"));
+    }
+
+}
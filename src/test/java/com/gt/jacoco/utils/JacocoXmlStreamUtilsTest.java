@@ -0,0 +1,285 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.MethodReference;
+import com.gt.jacoco.entity.ReportCounters;
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.XMLWriter;
+import org.jacoco.core.analysis.*;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.jacoco.report.IReportVisitor;
+import org.jacoco.report.xml.XMLFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在同一份 jacoco 报告上分别执行 dom 模式、stream 模式和直接从 IBundleCoverage 生成的 bundle 模式，
+ * 全量和增量重新统计、第一次生成和合并上一次的报告，输出的节点、属性和 counter 都需要一致
+ */
+public class JacocoXmlStreamUtilsTest {
+
+    /**
+     * 报告使用项目自己的 class，包含多个 package、内部类和 lambda
+     */
+    private static final String[] FIXTURE_PACKAGES = {"com/gt/jacoco/entity", "com/gt/jacoco/utils"};
+
+    private File dir;
+
+    private IBundleCoverage firstBundle;
+
+    private IBundleCoverage secondBundle;
+
+    private Map<String, List<MethodReference>> classMethodChanged;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jacoco-xml").toFile();
+        List<byte[]> classFiles = classFiles();
+        firstBundle = analyze(classFiles, new Random(1));
+        secondBundle = analyze(classFiles, new Random(2));
+        classMethodChanged = changedMethods(firstBundle);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testRefactor() throws Exception {
+        assertFalse(classMethodChanged.isEmpty());
+        Element expected = canonical(dom(firstBundle, null, false));
+        assertSameElement(expected, canonical(dom(firstBundle, null, true)));
+        assertSameElement(expected, canonical(stream(firstBundle, null, false)));
+        assertSameElement(expected, canonical(stream(firstBundle, null, true)));
+        assertSameElement(expected, canonical(bundle(firstBundle, null, false)));
+        assertSameElement(expected, canonical(bundle(firstBundle, null, true)));
+    }
+
+    @Test
+    public void testRefactorAndMerge() throws Exception {
+        File oldXml = dom(firstBundle, null, false);
+        Element expected = canonical(dom(secondBundle, oldXml, false));
+        assertSameElement(expected, canonical(dom(secondBundle, oldXml, true)));
+        assertSameElement(expected, canonical(stream(secondBundle, oldXml, false)));
+        assertSameElement(expected, canonical(stream(secondBundle, oldXml, true)));
+        assertSameElement(expected, canonical(bundle(secondBundle, oldXml, false)));
+        assertSameElement(expected, canonical(bundle(secondBundle, oldXml, true)));
+        assertTrue("合并后需要有 mark=changed 的行", expected.asXML().contains("mark=\"changed\""));
+    }
+
+    @Test
+    public void testRecountMatchesChildren() throws Exception {
+        Document document = JacocoXmlUtils.loadFile(stream(firstBundle, null, true).getPath());
+        Element report = document.getRootElement();
+        assertCountersAreSums(report, report.elements("package"), 6);
+        for (Element packageElement : report.elements("package")) {
+            assertCountersAreSums(packageElement, packageElement.elements("class"), 6);
+            for (Element classElement : packageElement.elements("class")) {
+                assertCountersAreSums(classElement, classElement.elements("method"), 5);
+                boolean changed = classMethodChanged.containsKey(classElement.attributeValue("name"));
+                for (Element methodElement : classElement.elements("method")) {
+                    if ("unchanged".equals(methodElement.attributeValue("mark"))) {
+                        for (Element counter : methodElement.elements("counter")) {
+                            assertEquals("0", counter.attributeValue("missed"));
+                        }
+                    } else {
+                        assertTrue(changed);
+                        assertNotNull(methodElement.attributeValue("hash"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * dom 模式：与 CoverageWorker 相同的 XMLFormatter 输出、加载、重构、合并、写回
+     */
+    private File dom(IBundleCoverage bundleCoverage, File oldXml, boolean incrementalRecount) throws IOException {
+        File xml = format(bundleCoverage, "dom");
+        Document document = JacocoXmlUtils.loadFile(xml.getPath());
+        JacocoXmlDirtyTracker tracker = incrementalRecount ? JacocoXmlDirtyTracker.incremental() : JacocoXmlDirtyTracker.full();
+        JacocoXmlUtils.refactorJacocoXml(document, classMethodChanged, tracker);
+        if (oldXml != null) {
+            JacocoXmlUtils.merge(JacocoXmlUtils.loadFile(oldXml.getPath()), document, tracker);
+            JacocoXmlUtils.recountCoverage(document, tracker);
+        }
+        try (FileWriter fileWriter = new FileWriter(xml)) {
+            XMLWriter writer = new XMLWriter(fileWriter);
+            writer.write(document);
+            writer.close();
+        }
+        return xml;
+    }
+
+    private File stream(IBundleCoverage bundleCoverage, File oldXml, boolean incrementalRecount) throws Exception {
+        File xml = format(bundleCoverage, "stream");
+        JacocoXmlStreamUtils.refactorAndMerge(xml.getPath(), oldXml == null ? null : oldXml.getPath(), classMethodChanged, incrementalRecount);
+        return xml;
+    }
+
+    private File bundle(IBundleCoverage bundleCoverage, File oldXml, boolean incrementalRecount) throws Exception {
+        File xml = File.createTempFile("bundle", ".xml", dir);
+        JacocoXmlStreamUtils.writeIncrementalReport(xml.getPath(), oldXml == null ? null : oldXml.getPath(), sessionInfos()
+                , bundleCoverage, classMethodChanged, incrementalRecount);
+        return xml;
+    }
+
+    private File format(IBundleCoverage bundleCoverage, String prefix) throws IOException {
+        File xml = File.createTempFile(prefix, ".xml", dir);
+        try (OutputStream out = new FileOutputStream(xml)) {
+            IReportVisitor visitor = new XMLFormatter().createVisitor(out);
+            visitor.visitInfo(sessionInfos(), Collections.emptyList());
+            visitor.visitBundle(bundleCoverage, null);
+            visitor.visitEnd();
+        }
+        return xml;
+    }
+
+    private static List<SessionInfo> sessionInfos() {
+        return Collections.singletonList(new SessionInfo("test", 1, 2));
+    }
+
+    /**
+     * 把报告转换为与属性顺序和空白无关的形式
+     */
+    private static Element canonical(File xml) {
+        Document document = JacocoXmlUtils.loadFile(xml.getPath());
+        assertNotNull(xml.getPath(), document);
+        return document.getRootElement();
+    }
+
+    private static void assertSameElement(Element expected, Element actual) {
+        String path = expected.getUniquePath() + attributes(expected);
+        assertEquals(path, expected.getName(), actual.getName());
+        assertEquals(path, attributes(expected), attributes(actual));
+        List<Element> expectedChildren = expected.elements();
+        List<Element> actualChildren = actual.elements();
+        assertEquals(path, expectedChildren.size(), actualChildren.size());
+        for (int idx = 0; idx < expectedChildren.size(); idx++) {
+            assertSameElement(expectedChildren.get(idx), actualChildren.get(idx));
+        }
+    }
+
+    private static Map<String, String> attributes(Element element) {
+        Map<String, String> attributes = new TreeMap<>();
+        for (Attribute attribute : element.attributes()) {
+            attributes.put(attribute.getName(), attribute.getValue());
+        }
+        return attributes;
+    }
+
+    private static void assertCountersAreSums(Element parent, List<Element> children, int typeCount) {
+        for (int type = 0; type < typeCount; type++) {
+            String typeName = ReportCounters.TYPES[type];
+            Element counter = JacocoXmlIndex.findCounter(parent, typeName);
+            if (counter == null) {
+                continue;
+            }
+            int missed = 0;
+            int covered = 0;
+            for (Element child : children) {
+                Element childCounter = JacocoXmlIndex.findCounter(child, typeName);
+                if (childCounter != null) {
+                    missed += Integer.parseInt(childCounter.attributeValue("missed"));
+                    covered += Integer.parseInt(childCounter.attributeValue("covered"));
+                }
+            }
+            String path = parent.attributeValue("name") + " " + typeName;
+            assertEquals(path, String.valueOf(missed), counter.attributeValue("missed"));
+            assertEquals(path, String.valueOf(covered), counter.attributeValue("covered"));
+        }
+    }
+
+    /**
+     * 每三个有行号的 class 中选一个，把它一半的方法当作改动方法，结束行取报告中方法的最后一行
+     */
+    private static Map<String, List<MethodReference>> changedMethods(IBundleCoverage bundleCoverage) {
+        Map<String, List<MethodReference>> classMethodChanged = new HashMap<>();
+        int classIdx = 0;
+        for (IPackageCoverage packageCoverage : bundleCoverage.getPackages()) {
+            for (IClassCoverage classCoverage : packageCoverage.getClasses()) {
+                if (classCoverage.getFirstLine() == ISourceNode.UNKNOWN_LINE || classIdx++ % 3 != 0) {
+                    continue;
+                }
+                List<MethodReference> methods = new ArrayList<>();
+                int methodIdx = 0;
+                for (IMethodCoverage methodCoverage : classCoverage.getMethods()) {
+                    if (methodIdx++ % 2 == 0 && methodCoverage.getFirstLine() != ISourceNode.UNKNOWN_LINE) {
+                        methods.add(new MethodReference(methodCoverage.getName() + methodCoverage.getDesc()
+                                , methodCoverage.getName().hashCode(), methodCoverage.getFirstLine(), methodCoverage.getLastLine()));
+                    }
+                }
+                classMethodChanged.put(classCoverage.getName(), methods);
+            }
+        }
+        return classMethodChanged;
+    }
+
+    private static IBundleCoverage analyze(List<byte[]> classFiles, Random random) throws IOException {
+        ExecutionDataStore executionDataStore = new ExecutionDataStore();
+        for (byte[] classBytes : classFiles) {
+            boolean[] probes = new boolean[probeCount(classBytes)];
+            for (int idx = 0; idx < probes.length; idx++) {
+                probes[idx] = random.nextInt(3) > 0;
+            }
+            executionDataStore.put(new ExecutionData(CRC64.classId(classBytes), new ClassReader(classBytes).getClassName(), probes));
+        }
+        CoverageBuilder coverageBuilder = new CoverageBuilder();
+        Analyzer analyzer = new Analyzer(executionDataStore, coverageBuilder);
+        for (byte[] classBytes : classFiles) {
+            analyzer.analyzeClass(classBytes, "test");
+        }
+        return coverageBuilder.getBundle("test");
+    }
+
+    private static int probeCount(byte[] classBytes) {
+        int[] count = new int[1];
+        new ClassReader(classBytes).accept(new ClassProbesAdapter(new ClassProbesVisitor() {
+            @Override
+            public MethodProbesVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return null;
+            }
+
+            @Override
+            public void visitTotalProbeCount(int totalProbeCount) {
+                count[0] = totalProbeCount;
+            }
+        }, false), 0);
+        return count[0];
+    }
+
+    private static List<byte[]> classFiles() throws IOException {
+        List<byte[]> classFiles = new ArrayList<>();
+        for (String packageName : FIXTURE_PACKAGES) {
+            try (Stream<Path> paths = Files.list(Paths.get("target", "classes", packageName))) {
+                for (Path path : paths.filter(path -> path.toString().endsWith(".class")).sorted().collect(Collectors.toList())) {
+                    classFiles.add(Files.readAllBytes(path));
+                }
+            }
+        }
+        return classFiles;
+    }
+
+}
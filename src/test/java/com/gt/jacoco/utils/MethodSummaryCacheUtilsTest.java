@@ -0,0 +1,112 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.config.Config;
+import com.gt.jacoco.entity.MethodReference;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 方法摘要缓存的写入、读取，以及缓存文件损坏和没有启用缓存的情况
+ */
+public class MethodSummaryCacheUtilsTest {
+
+    private static final ObjectId BLOB_ID = ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+
+    private Path dir;
+
+    private Config config;
+
+    private MethodSummaryCacheUtils methodSummaryCacheUtils;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("method-summary");
+        config = new Config();
+        config.setMethodSummaryCacheDir(dir.toString());
+        methodSummaryCacheUtils = new MethodSummaryCacheUtils();
+        ReflectionTestUtils.setField(methodSummaryCacheUtils, "config", config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Map<String, List<MethodReference>> summary = summary();
+        methodSummaryCacheUtils.put(BLOB_ID, summary);
+        assertTrue(dir.resolve("01").resolve("23456789abcdef0123456789abcdef01234567").toFile().isFile());
+
+        Map<String, List<MethodReference>> read = methodSummaryCacheUtils.get(BLOB_ID);
+        assertEquals(summary, read);
+        assertEquals("保持类的顺序", new ArrayList<>(summary.keySet()), new ArrayList<>(read.keySet()));
+        assertNull(methodSummaryCacheUtils.get(ObjectId.fromString("1123456789abcdef0123456789abcdef01234567")));
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        methodSummaryCacheUtils.put(BLOB_ID, summary());
+        methodSummaryCacheUtils.put(BLOB_ID, Collections.emptyMap());
+        assertEquals(Collections.emptyMap(), methodSummaryCacheUtils.get(BLOB_ID));
+        try (Stream<Path> paths = Files.walk(dir)) {
+            assertEquals("没有残留的临时文件", 1, paths.filter(Files::isRegularFile).collect(Collectors.toList()).size());
+        }
+    }
+
+    @Test
+    public void testCorruptedFile() throws IOException {
+        methodSummaryCacheUtils.put(BLOB_ID, summary());
+        File file = dir.resolve("01").resolve("23456789abcdef0123456789abcdef01234567").toFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 3);
+        }
+        assertNull("截断的文件视为不存在", methodSummaryCacheUtils.get(BLOB_ID));
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(1);
+            out.writeInt(0);
+        }
+        assertNull("旧版本的文件视为不存在", methodSummaryCacheUtils.get(BLOB_ID));
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        config.setMethodSummaryCacheDir(null);
+        assertFalse(methodSummaryCacheUtils.isEnabled());
+        methodSummaryCacheUtils.put(BLOB_ID, summary());
+        assertNull(methodSummaryCacheUtils.get(BLOB_ID));
+        try (Stream<Path> paths = Files.list(dir)) {
+            assertEquals(0, paths.count());
+        }
+    }
+
+    private static Map<String, List<MethodReference>> summary() {
+        Map<String, List<MethodReference>> summary = new LinkedHashMap<>();
+        summary.put("com/gt/Outer", Arrays.asList(
+                new MethodReference("<init>()V", 0L, -1, -1),
+                new MethodReference("say(Ljava/lang/String;)V", 0x8000000000000001L, 10, 20)));
+        summary.put("com/gt/Outer$Inner", Collections.singletonList(new MethodReference("中文()I", -1L, 30, 35)));
+        summary.put("com/gt/Empty", Collections.emptyList());
+        return summary;
+    }
+
+}
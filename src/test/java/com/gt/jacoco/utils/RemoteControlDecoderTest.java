@@ -0,0 +1,193 @@
+package com.gt.jacoco.utils;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.IExecutionDataVisitor;
+import org.jacoco.core.data.ISessionInfoVisitor;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.runtime.RemoteControlReader;
+import org.jacoco.core.runtime.RemoteControlWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按任意位置切分 agent 返回的数据逐段解码，结果需要与 RemoteControlReader 一次读完相同
+ */
+public class RemoteControlDecoderTest {
+
+    /**
+     * 与 AgentDumpClient 的初始读缓冲区大小相同
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Test
+    public void testCommands() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RemoteControlWriter writer = new RemoteControlWriter(bytes);
+        writer.visitDumpCommand(true, false);
+        assertArrayEquals(bytes.toByteArray(), toArray(RemoteControlDecoder.headerAndDumpCommand()));
+
+        bytes.reset();
+        writer.visitDumpCommand(true, false);
+        assertArrayEquals(bytes.toByteArray(), toArray(RemoteControlDecoder.dumpCommand()));
+    }
+
+    @Test
+    public void testWholeResponse() throws IOException {
+        byte[] response = response(new Random(0), true);
+        assertEquals(read(response), decode(response, new int[]{response.length}));
+    }
+
+    @Test
+    public void testRandomSplits() throws IOException {
+        Random random = new Random(0);
+        for (int round = 0; round < 20; round++) {
+            byte[] response = response(random, round % 2 == 0);
+            List<String> expected = read(response);
+            int[] chunks = new int[1 + random.nextInt(50)];
+            int offset = 0;
+            for (int idx = 0; idx < chunks.length - 1; idx++) {
+                chunks[idx] = random.nextInt(response.length - offset + 1);
+                offset += chunks[idx];
+            }
+            chunks[chunks.length - 1] = response.length - offset;
+            assertEquals(expected, decode(response, chunks));
+        }
+    }
+
+    @Test
+    public void testByteByByte() throws IOException {
+        byte[] response = response(new Random(1), false);
+        int[] chunks = new int[response.length];
+        Arrays.fill(chunks, 1);
+        assertEquals(read(response), decode(response, chunks));
+    }
+
+    @Test
+    public void testStopsAtCommandOk() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RemoteControlWriter writer = new RemoteControlWriter(bytes);
+        writer.visitClassExecution(new ExecutionData(1, "com/x/A", new boolean[]{true}));
+        writer.sendCmdOk();
+        writer.visitClassExecution(new ExecutionData(2, "com/x/B", new boolean[]{false, true}));
+        writer.sendCmdOk();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+        RemoteControlDecoder decoder = new RemoteControlDecoder();
+        List<String> first = new ArrayList<>();
+        setVisitors(decoder, first);
+        assertTrue(decoder.decode(buffer));
+        assertEquals(Arrays.asList("data 1 com/x/A [true]"), first);
+
+        List<String> second = new ArrayList<>();
+        setVisitors(decoder, second);
+        assertTrue(decoder.decode(buffer));
+        assertEquals(Arrays.asList("data 2 com/x/B [false, true]"), second);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownBlock() throws IOException {
+        new RemoteControlDecoder().decode(ByteBuffer.wrap(new byte[]{(byte) 0x7F}));
+    }
+
+    /**
+     * agent 对一次 dump 的完整回复：头部、会话信息、运行时数据和确认，
+     * 其中一个 class 的探针数组超过 64KB，需要扩大读缓冲区
+     */
+    private static byte[] response(Random random, boolean largeBlock) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RemoteControlWriter writer = new RemoteControlWriter(bytes);
+        writer.visitSessionInfo(new SessionInfo("pod-" + random.nextInt(100) + "-中文", random.nextLong(), random.nextLong()));
+        int classCount = 1 + random.nextInt(200);
+        for (int idx = 0; idx < classCount; idx++) {
+            int probeCount = largeBlock && idx == classCount / 2 ? 8 * BUFFER_SIZE + 13 : 1 + random.nextInt(300);
+            boolean[] probes = new boolean[probeCount];
+            probes[random.nextInt(probeCount)] = true;
+            for (int probe = 0; probe < probeCount; probe++) {
+                probes[probe] |= random.nextBoolean();
+            }
+            writer.visitClassExecution(new ExecutionData(random.nextLong(), "com/x/Class" + idx, probes));
+        }
+        writer.sendCmdOk();
+        return bytes.toByteArray();
+    }
+
+    private static List<String> read(byte[] response) throws IOException {
+        List<String> events = new ArrayList<>();
+        RemoteControlReader reader = new RemoteControlReader(new ByteArrayInputStream(response));
+        reader.setSessionInfoVisitor(info -> events.add(toString(info)));
+        reader.setExecutionDataVisitor(data -> events.add(toString(data)));
+        assertTrue(reader.read());
+        return events;
+    }
+
+    /**
+     * 与 AgentDumpClient 读取连接的方式相同：每次把收到的数据放进缓冲区后解码，保留不完整的 block，缓冲区满时加倍
+     */
+    private static List<String> decode(byte[] response, int[] chunks) throws IOException {
+        List<String> events = new ArrayList<>();
+        RemoteControlDecoder decoder = new RemoteControlDecoder();
+        setVisitors(decoder, events);
+        ByteBuffer incoming = ByteBuffer.allocate(BUFFER_SIZE);
+        int offset = 0;
+        boolean done = false;
+        for (int chunk : chunks) {
+            int end = offset + chunk;
+            while (offset < end || (chunk == 0 && !done)) {
+                int length = Math.min(end - offset, incoming.remaining());
+                incoming.put(response, offset, length);
+                offset += length;
+                incoming.flip();
+                done = decoder.decode(incoming);
+                incoming.compact();
+                if (done) {
+                    break;
+                }
+                if (!incoming.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(incoming.capacity() * 2);
+                    incoming.flip();
+                    larger.put(incoming);
+                    incoming = larger;
+                }
+                if (chunk == 0) {
+                    break;
+                }
+            }
+            assertEquals(done, offset == response.length);
+        }
+        assertTrue(done);
+        assertEquals(0, incoming.position());
+        return events;
+    }
+
+    private static void setVisitors(RemoteControlDecoder decoder, List<String> events) {
+        ISessionInfoVisitor sessionInfoVisitor = info -> events.add(toString(info));
+        IExecutionDataVisitor executionDataVisitor = data -> events.add(toString(data));
+        decoder.setVisitors(sessionInfoVisitor, executionDataVisitor);
+    }
+
+    private static String toString(SessionInfo info) {
+        return "session " + info.getId() + " " + info.getStartTimeStamp() + " " + info.getDumpTimeStamp();
+    }
+
+    private static String toString(ExecutionData data) {
+        return "data " + data.getId() + " " + data.getName() + " " + Arrays.toString(data.getProbes());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
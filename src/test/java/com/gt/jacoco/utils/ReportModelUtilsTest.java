@@ -0,0 +1,240 @@
+package com.gt.jacoco.utils;
+
+import com.gt.jacoco.entity.*;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 报告模型上的标记、未改动节点和行的覆盖、合并历史覆盖率以及重新统计
+ */
+public class ReportModelUtilsTest {
+
+    private static final int METHOD = ReportCounters.typeIndex("METHOD");
+
+    private static final MethodReference CHANGED_A = new MethodReference("a()V", 0x1fL, 3, 4);
+
+    @Test
+    public void testRefactorChangedPackage() {
+        ReportPackage reportPackage = reportPackage();
+        ReportModelUtils.refactorPackage(reportPackage, changed("com/gt/A", CHANGED_A));
+        ReportClass classA = reportPackage.getClasses().get(0);
+        ReportClass classB = reportPackage.getClasses().get(1);
+        ReportMethod methodA = classA.getMethods().get(0);
+        ReportMethod methodB = classA.getMethods().get(1);
+
+        assertEquals("changed", reportPackage.getMark());
+        assertNull(classA.getMark());
+        assertEquals("changed", methodA.getMark());
+        assertEquals("1f", methodA.getHash());
+        assertEquals(4, methodA.getEndLine());
+        assertCounter(methodA.getCounters(), ReportCounters.INSTRUCTION, 2, 3);
+
+        assertEquals("unchanged", methodB.getMark());
+        assertNull(methodB.getHash());
+        assertCounter(methodB.getCounters(), ReportCounters.INSTRUCTION, 0, 4);
+        assertCounter(methodB.getCounters(), ReportCounters.LINE, 0, 2);
+        assertTrue("有未改动方法的 class 需要重新统计", classA.isDirty());
+
+        assertEquals("unchanged", classB.getMark());
+        assertFalse("未改动的 class 直接累加", classB.isDirty());
+        assertCounter(classB.getCounters(), ReportCounters.INSTRUCTION, 0, 6);
+        assertCounter(classB.getCounters(), ReportCounters.CLASS, 0, 1);
+        assertTrue(reportPackage.isDirty());
+
+        ReportSourceFile linesA = reportPackage.getSourceFile("A.java");
+        assertLine(linesA, 3, 2, 3, 1, 1, CoverageLines.MARK_NONE);
+        assertLine(linesA, 4, 0, 2, 0, 0, CoverageLines.MARK_NONE);
+        assertLine(linesA, 7, 0, 3, 0, 0, CoverageLines.MARK_UNCHANGED);
+        assertLine(reportPackage.getSourceFile("B.java"), 2, 0, 6, 0, 0, CoverageLines.MARK_UNCHANGED);
+
+        ReportModelUtils.recountPackage(reportPackage, false);
+        assertFalse(classA.isDirty());
+        assertFalse(reportPackage.isDirty());
+        assertCounter(classA.getCounters(), ReportCounters.INSTRUCTION, 2, 7);
+        assertCounter(classA.getCounters(), METHOD, 0, 2);
+        assertCounter(classA.getCounters(), ReportCounters.CLASS, 0, 1);
+        assertCounter(reportPackage.getCounters(), ReportCounters.INSTRUCTION, 2, 13);
+        assertCounter(reportPackage.getCounters(), ReportCounters.BRANCH, 1, 1);
+        assertCounter(reportPackage.getCounters(), ReportCounters.CLASS, 0, 2);
+    }
+
+    @Test
+    public void testRefactorUnchangedPackage() {
+        ReportPackage reportPackage = reportPackage();
+        ReportModelUtils.refactorPackage(reportPackage, changed("com/other/C", CHANGED_A));
+        assertEquals("unchanged", reportPackage.getMark());
+        assertFalse(reportPackage.isDirty());
+        for (ReportClass reportClass : reportPackage.getClasses()) {
+            assertEquals("unchanged", reportClass.getMark());
+            assertFalse(reportClass.isDirty());
+        }
+        assertCounter(reportPackage.getCounters(), ReportCounters.INSTRUCTION, 0, 15);
+        assertCounter(reportPackage.getCounters(), ReportCounters.BRANCH, 0, 2);
+        assertCounter(reportPackage.getCounters(), METHOD, 0, 3);
+        assertCounter(reportPackage.getCounters(), ReportCounters.CLASS, 0, 2);
+        assertLine(reportPackage.getSourceFile("A.java"), 3, 0, 5, 0, 2, CoverageLines.MARK_UNCHANGED);
+    }
+
+    @Test
+    public void testIncrementalRecountMatchesFull() {
+        ReportPackage incremental = reportPackage();
+        ReportPackage full = reportPackage();
+        ReportModelUtils.refactorPackage(incremental, changed("com/gt/A", CHANGED_A));
+        ReportModelUtils.refactorPackage(full, changed("com/gt/A", CHANGED_A));
+        ReportModelUtils.mergePackage(incremental, history());
+        ReportModelUtils.mergePackage(full, history());
+        ReportModelUtils.recountPackage(incremental, false);
+        ReportModelUtils.recountPackage(full, true);
+        for (int idx = 0; idx < full.getClasses().size(); idx++) {
+            assertSameCounters(full.getClasses().get(idx).getCounters(), incremental.getClasses().get(idx).getCounters());
+        }
+        assertSameCounters(full.getCounters(), incremental.getCounters());
+    }
+
+    @Test
+    public void testMerge() {
+        ReportPackage reportPackage = reportPackage();
+        ReportModelUtils.refactorPackage(reportPackage, changed("com/gt/A", CHANGED_A));
+        reportPackage.getClasses().get(0).setDirty(false);
+        ReportModelUtils.mergePackage(reportPackage, history());
+
+        assertTrue(reportPackage.getClasses().get(0).isDirty());
+        ReportSourceFile linesA = reportPackage.getSourceFile("A.java");
+        assertLine(linesA, 3, 0, 5, 0, 2, CoverageLines.MARK_CHANGED);
+        assertLine(linesA, 4, 0, 2, 0, 0, CoverageLines.MARK_CHANGED);
+        assertLine(linesA, 7, 0, 3, 0, 0, CoverageLines.MARK_UNCHANGED);
+    }
+
+    @Test
+    public void testMergeSkipsDifferentHash() {
+        ReportPackage reportPackage = reportPackage();
+        ReportModelUtils.refactorPackage(reportPackage, changed("com/gt/A", new MethodReference("a()V", 0x2fL, 3, 4)));
+        reportPackage.getClasses().get(0).setDirty(false);
+        ReportModelUtils.mergePackage(reportPackage, history());
+
+        assertFalse(reportPackage.getClasses().get(0).isDirty());
+        assertLine(reportPackage.getSourceFile("A.java"), 3, 2, 3, 1, 1, CoverageLines.MARK_NONE);
+    }
+
+    /**
+     * com/gt/A(A.java): a()V 第 3-4 行，b()V 第 7-8 行；com/gt/B(B.java): c()V 第 2 行
+     */
+    private static ReportPackage reportPackage() {
+        ReportPackage reportPackage = new ReportPackage();
+        reportPackage.setName("com/gt");
+
+        ReportClass classA = reportClass("com/gt/A", "A.java");
+        ReportMethod methodA = method("a", 3);
+        methodA.getCounters().set(ReportCounters.INSTRUCTION, 2, 3);
+        methodA.getCounters().set(ReportCounters.BRANCH, 1, 1);
+        methodA.getCounters().set(ReportCounters.LINE, 1, 1);
+        methodA.getCounters().set(METHOD, 0, 1);
+        ReportMethod methodB = method("b", 7);
+        methodB.getCounters().set(ReportCounters.INSTRUCTION, 4, 0);
+        methodB.getCounters().set(ReportCounters.LINE, 2, 0);
+        methodB.getCounters().set(METHOD, 1, 0);
+        classA.getMethods().add(methodA);
+        classA.getMethods().add(methodB);
+        classA.getCounters().set(ReportCounters.INSTRUCTION, 6, 3);
+        classA.getCounters().set(ReportCounters.BRANCH, 1, 1);
+        classA.getCounters().set(ReportCounters.LINE, 3, 1);
+        classA.getCounters().set(METHOD, 1, 1);
+        classA.getCounters().set(ReportCounters.CLASS, 0, 1);
+
+        ReportClass classB = reportClass("com/gt/B", "B.java");
+        ReportMethod methodC = method("c", 2);
+        methodC.getCounters().set(ReportCounters.INSTRUCTION, 5, 1);
+        methodC.getCounters().set(ReportCounters.LINE, 0, 1);
+        methodC.getCounters().set(METHOD, 0, 1);
+        classB.getMethods().add(methodC);
+        classB.getCounters().set(ReportCounters.INSTRUCTION, 5, 1);
+        classB.getCounters().set(ReportCounters.LINE, 0, 1);
+        classB.getCounters().set(METHOD, 0, 1);
+        classB.getCounters().set(ReportCounters.CLASS, 0, 1);
+
+        reportPackage.getClasses().add(classA);
+        reportPackage.getClasses().add(classB);
+
+        ReportSourceFile linesA = new ReportSourceFile();
+        linesA.setName("A.java");
+        linesA.addLine(3, 2, 3, 1, 1, CoverageLines.MARK_NONE);
+        linesA.addLine(4, 0, 2, 0, 0, CoverageLines.MARK_NONE);
+        linesA.addLine(7, 3, 0, 0, 0, CoverageLines.MARK_NONE);
+        linesA.addLine(8, 1, 0, 0, 0, CoverageLines.MARK_NONE);
+        reportPackage.addSourceFile(linesA);
+        ReportSourceFile linesB = new ReportSourceFile();
+        linesB.setName("B.java");
+        linesB.addLine(2, 5, 1, 0, 0, CoverageLines.MARK_NONE);
+        reportPackage.addSourceFile(linesB);
+
+        reportPackage.getCounters().set(ReportCounters.INSTRUCTION, 11, 4);
+        reportPackage.getCounters().set(ReportCounters.BRANCH, 1, 1);
+        reportPackage.getCounters().set(ReportCounters.LINE, 3, 2);
+        reportPackage.getCounters().set(METHOD, 1, 2);
+        reportPackage.getCounters().set(ReportCounters.CLASS, 0, 2);
+        return reportPackage;
+    }
+
+    /**
+     * 上一次报告中的 com/gt/A，a()V 的 hash 为 1f，第 3 行已全部覆盖
+     */
+    private static ReportHistory history() {
+        ReportClass oldClass = reportClass("com/gt/A", "A.java");
+        ReportMethod oldMethod = method("a", 3);
+        oldMethod.setHash("1f");
+        oldMethod.setEndLine(4);
+        oldClass.getMethods().add(oldMethod);
+        ReportSourceFile oldLines = new ReportSourceFile();
+        oldLines.setName("A.java");
+        oldLines.addLine(3, 0, 5, 0, 2, CoverageLines.MARK_CHANGED);
+        oldLines.addLine(4, 1, 0, 0, 0, CoverageLines.MARK_CHANGED);
+        oldLines.addLine(9, 0, 1, 0, 0, CoverageLines.MARK_UNCHANGED);
+        ReportHistory history = new ReportHistory();
+        history.addClass(oldClass, oldLines);
+        return history;
+    }
+
+    private static ChangedMethodIndex changed(String className, MethodReference... methods) {
+        return new ChangedMethodIndex(Collections.singletonMap(className, Arrays.asList(methods)));
+    }
+
+    private static ReportClass reportClass(String name, String sourceFileName) {
+        ReportClass reportClass = new ReportClass();
+        reportClass.setName(name);
+        reportClass.setSourceFileName(sourceFileName);
+        return reportClass;
+    }
+
+    private static ReportMethod method(String name, int line) {
+        ReportMethod method = new ReportMethod();
+        method.setName(name);
+        method.setDesc("()V");
+        method.setLine(line);
+        return method;
+    }
+
+    private static void assertCounter(ReportCounters counters, int type, int missed, int covered) {
+        assertTrue(ReportCounters.TYPES[type], counters.has(type));
+        assertEquals(ReportCounters.TYPES[type], missed, counters.getMissed(type));
+        assertEquals(ReportCounters.TYPES[type], covered, counters.getCovered(type));
+    }
+
+    private static void assertSameCounters(ReportCounters expected, ReportCounters actual) {
+        for (int type = 0; type < ReportCounters.TYPES.length; type++) {
+            assertEquals(ReportCounters.TYPES[type], expected.has(type), actual.has(type));
+            assertEquals(ReportCounters.TYPES[type], expected.getMissed(type), actual.getMissed(type));
+            assertEquals(ReportCounters.TYPES[type], expected.getCovered(type), actual.getCovered(type));
+        }
+    }
+
+    private static void assertLine(ReportSourceFile lines, int nr, int mi, int ci, int mb, int cb, byte mark) {
+        int idx = lines.indexOf(nr);
+        assertTrue(String.valueOf(nr), idx >= 0);
+        assertEquals(Arrays.asList(mi, ci, mb, cb, (int) mark)
+                , Arrays.asList(lines.mi(idx), lines.ci(idx), lines.mb(idx), lines.cb(idx), (int) lines.getMarks()[idx]));
+    }
+
+}